@@ -24,8 +24,7 @@ import java.util.Random;
  */
 public class MainActivity extends Activity implements View.OnClickListener {
     OverView mRecentView;
-    ArrayList<WindowModel> mWindowDataList;
-    StackViewAdapter mAdapter;
+    StackViewAdapter<ViewHolder<View, WindowModel>, WindowModel> mAdapter;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -33,8 +32,7 @@ public class MainActivity extends Activity implements View.OnClickListener {
         setContentView(R.layout.activity_main);
 
         initBottomBar();
-        initData();
-        initOverView();
+        initOverView(initData());
     }
 
     @Override
@@ -52,14 +50,14 @@ public class MainActivity extends Activity implements View.OnClickListener {
             case R.id.id_over_view_add:
                 WindowModel model = new WindowModel();
                 Random random = new Random();
-                random.setSeed(mWindowDataList.size());
+                random.setSeed(mAdapter.getNumberOfItems());
                 int color = Color.argb(255, random.nextInt(255), random.nextInt(255), random.nextInt(255));
                 model.thumbnailIconUrl = "";
                 model.colorId = color;
                 model.title = "（new） 窗口";
                 model.windowDrawable = null;
-                mWindowDataList.add(model);
-                mAdapter.notifyDataSetChanged(mWindowDataList);
+                // The adapter keeps its own copy of the models, so go through it
+                mAdapter.notifyDataSetInserted(model, mAdapter.getNumberOfItems());
                 break;
             case R.id.id_over_view_clear_all:
                 mRecentView.clearDisappearingChildren();
@@ -67,8 +65,8 @@ public class MainActivity extends Activity implements View.OnClickListener {
         }
     }
 
-    private void initData() {
-        mWindowDataList = new ArrayList<>();
+    private ArrayList<WindowModel> initData() {
+        ArrayList<WindowModel> windowDataList = new ArrayList<>();
         WindowModel model;
         for (int i = 0; i < 5; i++) {
             model = new WindowModel();
@@ -79,8 +77,9 @@ public class MainActivity extends Activity implements View.OnClickListener {
             model.colorId = color;
             model.title = "这是第 " + i + " 个窗口";
             model.windowDrawable = null;
-            mWindowDataList.add(model);
+            windowDataList.add(model);
         }
+        return windowDataList;
     }
 
     private void initBottomBar() {
@@ -89,8 +88,8 @@ public class MainActivity extends Activity implements View.OnClickListener {
         findViewById(R.id.id_over_view_clear_all).setOnClickListener(this);
     }
 
-    private void initOverView() {
-        mAdapter = new StackViewAdapter<ViewHolder<View, WindowModel>, WindowModel>(mWindowDataList) {
+    private void initOverView(ArrayList<WindowModel> windowDataList) {
+        mAdapter = new StackViewAdapter<ViewHolder<View, WindowModel>, WindowModel>(windowDataList) {
             @Override
             public ViewHolder<View, WindowModel> onCreateViewHolder(Context context, ViewGroup parent) {
                 View v = View.inflate(context, R.layout.stack_view_card, null);
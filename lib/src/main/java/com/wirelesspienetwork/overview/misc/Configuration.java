@@ -31,6 +31,11 @@ public class Configuration {
     public int taskStackTopPaddingPx;
     public float taskStackWidthPaddingPct;
     public float taskStackOverScrollPct;
+    // The decay rate of flings, per second, and whether they come to rest on a card
+    public float taskStackFlingFriction;
+    public boolean taskStackFlingSnapToCards;
+    public int taskStackScrubberWidthPx;
+    public int taskStackScrubberThumbHeightPx;
 
     /**
      * Task view animation and styles
@@ -40,6 +45,13 @@ public class Configuration {
     public int taskViewEnterFromHomeStaggerDelay;
     public int taskViewTranslationZMinPx;
     public int taskViewTranslationZMaxPx;
+    // Swipe dismissals finishing within this window of each other are removed together
+    public int taskViewDismissBatchWindow;
+    // How long the last dismissed cards can be restored without rebinding them, 0 to disable
+    public int taskViewDismissUndoWindow;
+    // Cards above these curve progress values get a lower detail level
+    public float taskViewDetailReducedProgress;
+    public float taskViewDetailMinimalProgress;
 
     public Configuration(Context context) {
         fastOutSlowInInterpolator = AnimationUtils.loadInterpolator(context,
@@ -77,6 +89,13 @@ public class Configuration {
 
         taskStackTopPaddingPx = res.getDimensionPixelSize(R.dimen.recent_stack_top_padding);
 
+        TypedValue flingFrictionValue = new TypedValue();
+        res.getValue(R.dimen.recent_stack_fling_friction, flingFrictionValue, true);
+        taskStackFlingFriction = flingFrictionValue.getFloat();
+        taskStackFlingSnapToCards = res.getBoolean(R.bool.recent_stack_fling_snap_to_cards);
+        taskStackScrubberWidthPx = res.getDimensionPixelSize(R.dimen.recent_stack_scrubber_width);
+        taskStackScrubberThumbHeightPx = res.getDimensionPixelSize(R.dimen.recent_stack_scrubber_thumb_height);
+
         // Task view animation and styles
         taskViewEnterFromHomeDelay =
                 res.getInteger(R.integer.recent_animate_task_enter_from_home_delay);
@@ -86,6 +105,18 @@ public class Configuration {
                 res.getInteger(R.integer.recent_animate_task_enter_from_home_stagger_delay);
         taskViewTranslationZMinPx = res.getDimensionPixelSize(R.dimen.recent_task_view_z_min);
         taskViewTranslationZMaxPx = res.getDimensionPixelSize(R.dimen.recent_task_view_z_max);
+        taskViewDismissBatchWindow =
+                res.getInteger(R.integer.recent_animate_task_dismiss_batch_window);
+        taskViewDismissUndoWindow =
+                res.getInteger(R.integer.recent_animate_task_dismiss_undo_window);
+
+        TypedValue detailReducedValue = new TypedValue();
+        res.getValue(R.dimen.recent_task_view_detail_reduced_progress, detailReducedValue, true);
+        taskViewDetailReducedProgress = detailReducedValue.getFloat();
+
+        TypedValue detailMinimalValue = new TypedValue();
+        res.getValue(R.dimen.recent_task_view_detail_minimal_progress, detailMinimalValue, true);
+        taskViewDetailMinimalProgress = detailMinimalValue.getFloat();
     }
 
     /**
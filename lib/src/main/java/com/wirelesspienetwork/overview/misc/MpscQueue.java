@@ -0,0 +1,57 @@
+package com.wirelesspienetwork.overview.misc;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 多生产者单消费者队列
+ * An unbounded lock-free queue that any number of threads can offer to, and a single thread
+ * polls from. Producers append by swapping the head, so offering never waits on other threads.
+ * A value is only visible to poll() once its offer() returned.
+ */
+public final class MpscQueue<E> {
+
+    private static final class Node<E> {
+        E value;
+        volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    // The last offered node, swapped by the producers
+    private final AtomicReference<Node<E>> mHead;
+    // The last polled node, only touched by the consumer
+    private Node<E> mTail;
+
+    public MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        mHead = new AtomicReference<>(stub);
+        mTail = stub;
+    }
+
+    /**
+     * Appends a value, from any thread
+     */
+    public void offer(E value) {
+        Node<E> node = new Node<>(value);
+        Node<E> previous = mHead.getAndSet(node);
+        previous.next = node;
+    }
+
+    /**
+     * Removes and returns the oldest value, or returns null if there is none. Only call this from
+     * the consumer thread.
+     */
+    public E poll() {
+        Node<E> next = mTail.next;
+        if (next == null) {
+            return null;
+        }
+        E value = next.value;
+        // The polled node becomes the stub, don't keep its value alive
+        next.value = null;
+        mTail = next;
+        return value;
+    }
+}
@@ -0,0 +1,270 @@
+package com.wirelesspienetwork.overview.misc;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * 不可变列表
+ * An immutable list whose updates return a new version sharing most of its structure with the
+ * previous one, in O(log n) time and allocations. Any version can be read from any thread while
+ * others are derived from it, without copying or locking. It is an implicit treap whose nodes are
+ * never modified once created: updates copy the path to the changed node.
+ */
+public final class PersistentVector<E> extends AbstractList<E> {
+
+    private static final PersistentVector<Object> EMPTY = new PersistentVector<>(null);
+    private static final Random sRandom = new Random();
+
+    private static final class Node<E> {
+        final E value;
+        final int priority;
+        final Node<E> left;
+        final Node<E> right;
+        final int size;
+
+        Node(E value, int priority, Node<E> left, Node<E> right) {
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        Node<E> with(Node<E> left, Node<E> right) {
+            return new Node<>(value, priority, left, right);
+        }
+    }
+
+    private final Node<E> mRoot;
+
+    private PersistentVector(Node<E> root) {
+        mRoot = root;
+    }
+
+    /**
+     * Returns the empty vector
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> empty() {
+        return (PersistentVector<E>) EMPTY;
+    }
+
+    /**
+     * Returns a vector of the specified values, in O(n)
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentVector<E> of(List<? extends E> values) {
+        Object[] array = values.toArray();
+        int count = array.length;
+        if (count == 0) {
+            return empty();
+        }
+
+        // Build the cartesian tree of random priorities with a stack of its right spine
+        int[] priorities = new int[count];
+        int[] left = new int[count];
+        int[] right = new int[count];
+        int[] stack = new int[count];
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            priorities[i] = sRandom.nextInt();
+            right[i] = -1;
+            int last = -1;
+            while (top > 0 && priorities[stack[top - 1]] < priorities[i]) {
+                last = stack[--top];
+            }
+            left[i] = last;
+            if (top > 0) {
+                right[stack[top - 1]] = i;
+            }
+            stack[top++] = i;
+        }
+        return new PersistentVector<>((Node<E>) build(array, stack[0], priorities, left, right));
+    }
+
+    private static Node<Object> build(Object[] values, int index, int[] priorities, int[] left, int[] right) {
+        if (index < 0) {
+            return null;
+        }
+        return new Node<>(values[index], priorities[index], build(values, left[index], priorities, left, right),
+                build(values, right[index], priorities, left, right));
+    }
+
+    @Override
+    public int size() {
+        return size(mRoot);
+    }
+
+    @Override
+    public E get(int index) {
+        checkIndex(index, size());
+        Node<E> node = mRoot;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Returns a version with the value inserted at the specified index
+     */
+    public PersistentVector<E> withInserted(int index, E value) {
+        checkIndex(index, size() + 1);
+        return new PersistentVector<>(insert(mRoot, index, new Node<>(value, sRandom.nextInt(), null, null)));
+    }
+
+    /**
+     * Returns a version without the value at the specified index
+     */
+    public PersistentVector<E> withRemoved(int index) {
+        checkIndex(index, size());
+        return new PersistentVector<>(remove(mRoot, index));
+    }
+
+    /**
+     * Returns a version with the value at the specified index replaced
+     */
+    public PersistentVector<E> withReplaced(int index, E value) {
+        checkIndex(index, size());
+        return new PersistentVector<>(replace(mRoot, index, value));
+    }
+
+    /**
+     * Returns a version with the value at fromIndex moved to toIndex, the values in between
+     * shift by one
+     */
+    public PersistentVector<E> withMoved(int fromIndex, int toIndex) {
+        checkIndex(toIndex, size());
+        E value = get(fromIndex);
+        return new PersistentVector<>(insert(remove(mRoot, fromIndex), toIndex,
+                new Node<>(value, sRandom.nextInt(), null, null)));
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            // The nodes whose value and right subtree are still to be visited
+            ArrayList<Node<E>> mStack = new ArrayList<>();
+
+            {
+                pushLeftSpine(mRoot);
+            }
+
+            private void pushLeftSpine(Node<E> node) {
+                for (; node != null; node = node.left) {
+                    mStack.add(node);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !mStack.isEmpty();
+            }
+
+            @Override
+            public E next() {
+                if (mStack.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<E> node = mStack.remove(mStack.size() - 1);
+                pushLeftSpine(node.right);
+                return node.value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static int size(Node<?> node) {
+        return (node != null) ? node.size : 0;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index is out of bounds.");
+        }
+    }
+
+    private static <E> Node<E> insert(Node<E> node, int index, Node<E> newNode) {
+        if (node == null) {
+            return newNode;
+        }
+        if (newNode.priority > node.priority) {
+            // The new node goes above this one, splitting it around the index
+            ArrayList<Node<E>> halves = new ArrayList<>(2);
+            split(node, index, halves);
+            return newNode.with(halves.get(0), halves.get(1));
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize) {
+            return node.with(insert(node.left, index, newNode), node.right);
+        }
+        return node.with(node.left, insert(node.right, index - leftSize - 1, newNode));
+    }
+
+    private static <E> Node<E> remove(Node<E> node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.with(remove(node.left, index), node.right);
+        } else if (index == leftSize) {
+            return merge(node.left, node.right);
+        }
+        return node.with(node.left, remove(node.right, index - leftSize - 1));
+    }
+
+    private static <E> Node<E> replace(Node<E> node, int index, E value) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.with(replace(node.left, index, value), node.right);
+        } else if (index == leftSize) {
+            return new Node<>(value, node.priority, node.left, node.right);
+        }
+        return node.with(node.left, replace(node.right, index - leftSize - 1, value));
+    }
+
+    /**
+     * Splits the tree into its first count values and the rest, added to halves in this order
+     */
+    private static <E> void split(Node<E> node, int count, ArrayList<Node<E>> halves) {
+        if (node == null) {
+            halves.add(null);
+            halves.add(null);
+            return;
+        }
+        int leftSize = size(node.left);
+        if (count <= leftSize) {
+            split(node.left, count, halves);
+            halves.set(1, node.with(halves.get(1), node.right));
+        } else {
+            split(node.right, count - leftSize - 1, halves);
+            halves.set(0, node.with(node.left, halves.get(0)));
+        }
+    }
+
+    private static <E> Node<E> merge(Node<E> left, Node<E> right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        }
+        return right.with(merge(left, right.left), right.right);
+    }
+}
@@ -0,0 +1,342 @@
+package com.wirelesspienetwork.overview.misc;
+
+import java.util.Arrays;
+
+/**
+ * 卡片进度前缀和树
+ * A sequence of non negative weights, eg. card heights, supporting positional insert, remove and
+ * update, prefix sums and prefix sum searches, all in O(log n). With weights of 0 and 1 it maps
+ * ranks among the non zero weights to indices and back. It is an implicit treap: nodes are ordered by position
+ * and each one keeps the size and the weight sum of its subtree. Nodes live in parallel arrays
+ * and are recycled, so mutations don't allocate once the arrays are large enough.
+ */
+public final class ProgressTree {
+
+    // Node 0 is the empty tree
+    private static final int NIL = 0;
+
+    private int[] mLeft = new int[16];
+    private int[] mRight = new int[16];
+    private int[] mSize = new int[16];
+    private int[] mPriority = new int[16];
+    private float[] mWeight = new float[16];
+    private float[] mSum = new float[16];
+    private int mRoot = NIL;
+    private int mNodeCount = 1;
+    private int mFreeHead = NIL;
+    private int mSeed = 0x2545F491;
+
+    // Results of split()
+    private int mSplitLeft;
+    private int mSplitRight;
+
+    // Only used by build()
+    private int[] mBuildStack = new int[16];
+
+    /**
+     * Returns the number of weights
+     */
+    public int size() {
+        return mSize[mRoot];
+    }
+
+    /**
+     * Returns the sum of all the weights
+     */
+    public float getTotal() {
+        return mSum[mRoot];
+    }
+
+    /**
+     * Removes all the weights
+     */
+    public void clear() {
+        mRoot = NIL;
+        mNodeCount = 1;
+        mFreeHead = NIL;
+    }
+
+    /**
+     * Replaces the contents with the first count weights, in O(n)
+     */
+    public void build(float[] weights, int count) {
+        clear();
+        ensureCapacity(count + 1);
+        if (mBuildStack.length < count) {
+            mBuildStack = new int[count];
+        }
+
+        // Build the cartesian tree of the priorities with a stack of its right spine
+        int top = 0;
+        for (int i = 0; i < count; i++) {
+            int node = newNode(weights[i]);
+            int last = NIL;
+            while (top > 0 && mPriority[mBuildStack[top - 1]] < mPriority[node]) {
+                last = mBuildStack[--top];
+                update(last);
+            }
+            mLeft[node] = last;
+            if (top > 0) {
+                mRight[mBuildStack[top - 1]] = node;
+            }
+            mBuildStack[top++] = node;
+        }
+        while (top > 0) {
+            update(mBuildStack[--top]);
+        }
+        mRoot = (count > 0) ? mBuildStack[0] : NIL;
+    }
+
+    /**
+     * Inserts a weight at the specified index
+     */
+    public void insert(int index, float weight) {
+        int node = newNode(weight);
+        split(mRoot, index);
+        int right = mSplitRight;
+        mRoot = merge(merge(mSplitLeft, node), right);
+    }
+
+    /**
+     * Removes the weight at the specified index
+     */
+    public void remove(int index) {
+        split(mRoot, index);
+        int left = mSplitLeft;
+        split(mSplitRight, 1);
+        freeNode(mSplitLeft);
+        mRoot = merge(left, mSplitRight);
+    }
+
+    /**
+     * Moves the weight at fromIndex to toIndex, the weights in between shift by one
+     */
+    public void move(int fromIndex, int toIndex) {
+        float weight = get(fromIndex);
+        remove(fromIndex);
+        insert(toIndex, weight);
+    }
+
+    /**
+     * Returns the weight at the specified index
+     */
+    public float get(int index) {
+        int node = mRoot;
+        while (node != NIL) {
+            int leftSize = mSize[mLeft[node]];
+            if (index < leftSize) {
+                node = mLeft[node];
+            } else if (index == leftSize) {
+                return mWeight[node];
+            } else {
+                index -= leftSize + 1;
+                node = mRight[node];
+            }
+        }
+        throw new IndexOutOfBoundsException("Index is out of bounds.");
+    }
+
+    /**
+     * Sets the weight at the specified index
+     */
+    public void set(int index, float weight) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index is out of bounds.");
+        }
+        set(mRoot, index, weight);
+    }
+
+    private void set(int node, int index, float weight) {
+        int leftSize = mSize[mLeft[node]];
+        if (index < leftSize) {
+            set(mLeft[node], index, weight);
+        } else if (index == leftSize) {
+            mWeight[node] = weight;
+        } else {
+            set(mRight[node], index - leftSize - 1, weight);
+        }
+        update(node);
+    }
+
+    /**
+     * Returns the sum of the weights before the specified index
+     */
+    public float getPrefixSum(int index) {
+        float sum = 0;
+        int node = mRoot;
+        while (node != NIL) {
+            int leftSize = mSize[mLeft[node]];
+            if (index <= leftSize) {
+                if (index == leftSize) {
+                    return sum + mSum[mLeft[node]];
+                }
+                node = mLeft[node];
+            } else {
+                sum += mSum[mLeft[node]] + mWeight[node];
+                index -= leftSize + 1;
+                node = mRight[node];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the largest index whose prefix sum is at most the specified one, or -1 if there is
+     * none.
+     */
+    public int findLastIndexAtOrBefore(float prefixSum) {
+        int result = -1;
+        int base = 0;
+        int node = mRoot;
+        while (node != NIL) {
+            float leftSum = mSum[mLeft[node]];
+            if (prefixSum < leftSum) {
+                node = mLeft[node];
+            } else {
+                // This node's prefix sum fits, now see whether the following ones do too
+                base += mSize[mLeft[node]];
+                result = base;
+                prefixSum -= leftSum + mWeight[node];
+                if (prefixSum < 0) {
+                    break;
+                }
+                base++;
+                node = mRight[node];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the largest index before the specified one whose weight is not zero, or -1 if there
+     * is none. Weights are never negative, so a subtree holds a non zero weight iff its sum is
+     * positive.
+     */
+    public int findLastNonZeroBefore(int index) {
+        int result = -1;
+        int subtree = NIL;
+        int subtreeBase = 0;
+        int base = 0;
+        int node = mRoot;
+        while (node != NIL) {
+            int leftSize = mSize[mLeft[node]];
+            if (index <= base + leftSize) {
+                node = mLeft[node];
+            } else {
+                // This node and its left subtree are before index, and after any earlier match
+                if (mWeight[node] > 0) {
+                    result = base + leftSize;
+                    subtree = NIL;
+                } else if (mSum[mLeft[node]] > 0) {
+                    subtree = mLeft[node];
+                    subtreeBase = base;
+                }
+                base += leftSize + 1;
+                node = mRight[node];
+            }
+        }
+        if (subtree == NIL) {
+            return result;
+        }
+
+        // Find the last non zero weight of the matching subtree
+        node = subtree;
+        base = subtreeBase;
+        while (true) {
+            int leftSize = mSize[mLeft[node]];
+            if (mSum[mRight[node]] > 0) {
+                base += leftSize + 1;
+                node = mRight[node];
+            } else if (mWeight[node] > 0) {
+                return base + leftSize;
+            } else {
+                node = mLeft[node];
+            }
+        }
+    }
+
+    private void update(int node) {
+        mSize[node] = mSize[mLeft[node]] + mSize[mRight[node]] + 1;
+        mSum[node] = mSum[mLeft[node]] + mSum[mRight[node]] + mWeight[node];
+    }
+
+    /**
+     * Splits the tree into its first count nodes, in mSplitLeft, and the rest, in mSplitRight
+     */
+    private void split(int node, int count) {
+        if (node == NIL) {
+            mSplitLeft = mSplitRight = NIL;
+            return;
+        }
+        int leftSize = mSize[mLeft[node]];
+        if (count <= leftSize) {
+            split(mLeft[node], count);
+            mLeft[node] = mSplitRight;
+            update(node);
+            mSplitRight = node;
+        } else {
+            split(mRight[node], count - leftSize - 1);
+            mRight[node] = mSplitLeft;
+            update(node);
+            mSplitLeft = node;
+        }
+    }
+
+    private int merge(int left, int right) {
+        if (left == NIL) {
+            return right;
+        }
+        if (right == NIL) {
+            return left;
+        }
+        if (mPriority[left] > mPriority[right]) {
+            mRight[left] = merge(mRight[left], right);
+            update(left);
+            return left;
+        } else {
+            mLeft[right] = merge(left, mLeft[right]);
+            update(right);
+            return right;
+        }
+    }
+
+    private int newNode(float weight) {
+        int node;
+        if (mFreeHead != NIL) {
+            node = mFreeHead;
+            mFreeHead = mLeft[node];
+        } else {
+            ensureCapacity(mNodeCount + 1);
+            node = mNodeCount++;
+        }
+        // xorshift
+        mSeed ^= mSeed << 13;
+        mSeed ^= mSeed >>> 17;
+        mSeed ^= mSeed << 5;
+        mPriority[node] = mSeed;
+        mLeft[node] = mRight[node] = NIL;
+        mWeight[node] = weight;
+        update(node);
+        return node;
+    }
+
+    private void freeNode(int node) {
+        if (node != NIL) {
+            mLeft[node] = mFreeHead;
+            mFreeHead = node;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mLeft.length >= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mLeft.length * 2);
+        mLeft = Arrays.copyOf(mLeft, newCapacity);
+        mRight = Arrays.copyOf(mRight, newCapacity);
+        mSize = Arrays.copyOf(mSize, newCapacity);
+        mPriority = Arrays.copyOf(mPriority, newCapacity);
+        mWeight = Arrays.copyOf(mWeight, newCapacity);
+        mSum = Arrays.copyOf(mSum, newCapacity);
+    }
+}
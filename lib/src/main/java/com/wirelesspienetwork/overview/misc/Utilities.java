@@ -12,28 +12,6 @@ import java.lang.reflect.Method;
  */
 public class Utilities {
 
-    // Reflection methods for altering shadows
-    private static Method sPropertyMethod;
-    static {
-        try {
-            Class<?> c = Class.forName("android.view.GLES20Canvas");
-            sPropertyMethod = c.getDeclaredMethod("setProperty", String.class, String.class);
-            if (!sPropertyMethod.isAccessible()) sPropertyMethod.setAccessible(true);
-        } catch (ClassNotFoundException e) {
-            if (BuildConfig.DEBUG) {
-                e.printStackTrace();
-            }
-        } catch (NoSuchMethodException e) {
-            if (BuildConfig.DEBUG) {
-                e.printStackTrace();
-            }
-        } catch (Exception ex) {
-            if (BuildConfig.DEBUG) {
-                ex.printStackTrace();
-            }
-        }
-     }
-
     /**
      * Scales a rect about its centroid
      */
@@ -50,11 +28,35 @@ public class Utilities {
         }
     }
 
-    /** Sets some private shadow properties. */
+    /**
+     * Sets some private shadow properties. The reflection is only done on first use, not when
+     * this class is loaded, and it is a no-op on releases without GLES20Canvas. Card shadows
+     * no longer rely on this, see CardTransform and CardShadowCache.
+     */
     public static void setShadowProperty(String property, String value)
             throws IllegalAccessException, InvocationTargetException {
-        if (sPropertyMethod != null) {
-            sPropertyMethod.invoke(null, property, value);
+        Method propertyMethod = ShadowPropertyHolder.sPropertyMethod;
+        if (propertyMethod != null) {
+            propertyMethod.invoke(null, property, value);
+        }
+    }
+
+    // Reflection methods for altering shadows, resolved lazily by the class loader
+    private static class ShadowPropertyHolder {
+        static final Method sPropertyMethod = findPropertyMethod();
+
+        private static Method findPropertyMethod() {
+            try {
+                Class<?> c = Class.forName("android.view.GLES20Canvas");
+                Method method = c.getDeclaredMethod("setProperty", String.class, String.class);
+                if (!method.isAccessible()) method.setAccessible(true);
+                return method;
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) {
+                    e.printStackTrace();
+                }
+            }
+            return null;
         }
     }
 }
@@ -0,0 +1,294 @@
+package com.wirelesspienetwork.overview.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * 分页加载的适配器
+ * An adapter for stacks too large to be held in memory. It knows the number of items up front and
+ * loads their models in fixed size pages, on a background executor, around the visible cards.
+ * Pages far from the visible cards are evicted, and cards show a placeholder, see
+ * {@link #onBindPlaceholder(ViewHolder)}, until their page is loaded. Items can be inserted,
+ * removed and moved like with any adapter, the loaded models shift along, but they can't be
+ * filtered. The items loaded afterwards come from {@link #loadPage(int, int)}, so the data it
+ * reads from must change along.
+ */
+public abstract class PagedStackViewAdapter<VH extends ViewHolder, Model> extends StackViewAdapter<VH, Model> {
+
+    private final int mPageSize;
+    private final int mPrefetchDistance;
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private int mItemCount;
+    // The loaded pages by index, a null model is an item that still has to be loaded
+    private SparseArray<Object[]> mPages = new SparseArray<>();
+    // The pages being loaded, and the generation they were requested in
+    private SparseIntArray mLoadingPages = new SparseIntArray();
+    // Incremented when the positions shift, the pages requested before are dropped
+    private int mGeneration;
+
+    private int mFrontMostVisiblePosition = -1;
+    private int mBackMostVisiblePosition = -1;
+
+    /**
+     * @param itemCount        the total number of items
+     * @param pageSize         the number of models loaded at once
+     * @param prefetchDistance the number of items loaded beyond the visible cards, on each side.
+     *                         The pages further than twice this distance are evicted.
+     * @param executor         the executor {@link #loadPage(int, int)} runs on
+     */
+    protected PagedStackViewAdapter(int itemCount, int pageSize, int prefetchDistance, Executor executor) {
+        super(null);
+        if (itemCount < 0 || pageSize < 1 || prefetchDistance < 0) {
+            throw new IllegalArgumentException("Invalid item count, page size or prefetch distance.");
+        }
+        mItemCount = itemCount;
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+        mExecutor = executor;
+    }
+
+    /**
+     * Loads the models of the items from position to position + count, exclusive. This is called
+     * on the executor, and must return count non null models.
+     */
+    protected abstract List<Model> loadPage(int position, int count);
+
+    @Override
+    public int getNumberOfItems() {
+        return mItemCount;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Model getItem(int position) {
+        Object[] models = mPages.get(position / mPageSize);
+        return (models != null) ? (Model) models[position % mPageSize] : null;
+    }
+
+    @Override
+    public boolean isItemLoaded(int position) {
+        return getItem(position) != null;
+    }
+
+    @Override
+    public void onVisibleRangeChanged(int frontMostPosition, int backMostPosition) {
+        mFrontMostVisiblePosition = frontMostPosition;
+        mBackMostVisiblePosition = backMostPosition;
+        updatePages();
+    }
+
+    @Override
+    protected void insertItem(int position, Model model) {
+        // Shift the loaded models up over the new one, in place: going down, each model is read
+        // before its slot is written, since it only moves to higher positions
+        mItemCount++;
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int page = mPages.keyAt(i);
+            Object[] models = mPages.valueAt(i);
+            for (int j = mPageSize - 1; j >= 0; j--) {
+                int slotPosition = page * mPageSize + j;
+                if (slotPosition < position) {
+                    break;
+                }
+                if (slotPosition < mItemCount) {
+                    models[j] = (slotPosition == position) ? model : getItem(slotPosition - 1);
+                }
+            }
+        }
+        onPositionsShifted();
+    }
+
+    @Override
+    protected void moveItem(int fromPosition, int toPosition) {
+        // Read the new model of each loaded slot in between first, then write them all
+        int firstPosition = Math.min(fromPosition, toPosition);
+        int lastPosition = Math.max(fromPosition, toPosition);
+        int slotCount = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            int page = mPages.keyAt(i);
+            slotCount += Math.max(0, Math.min(lastPosition + 1, (page + 1) * mPageSize)
+                    - Math.max(firstPosition, page * mPageSize));
+        }
+        Object[] movedModels = new Object[slotCount];
+        int slotIndex = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            int page = mPages.keyAt(i);
+            int end = Math.min(lastPosition + 1, (page + 1) * mPageSize);
+            for (int slotPosition = Math.max(firstPosition, page * mPageSize); slotPosition < end; slotPosition++) {
+                movedModels[slotIndex++] = getItem(getMovedFromPosition(slotPosition, fromPosition, toPosition));
+            }
+        }
+        slotIndex = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            int page = mPages.keyAt(i);
+            Object[] models = mPages.valueAt(i);
+            int end = Math.min(lastPosition + 1, (page + 1) * mPageSize);
+            for (int slotPosition = Math.max(firstPosition, page * mPageSize); slotPosition < end; slotPosition++) {
+                models[slotPosition - page * mPageSize] = movedModels[slotIndex++];
+            }
+        }
+        onPositionsShifted();
+    }
+
+    /**
+     * Returns the position, before the move, of the item that ends up at this position
+     */
+    private static int getMovedFromPosition(int position, int fromPosition, int toPosition) {
+        if (position == toPosition) {
+            return fromPosition;
+        } else if (fromPosition < toPosition && fromPosition <= position && position < toPosition) {
+            return position + 1;
+        } else if (fromPosition > toPosition && toPosition < position && position <= fromPosition) {
+            return position - 1;
+        }
+        return position;
+    }
+
+    @Override
+    public void setFilterQuery(CharSequence query) {
+        throw new UnsupportedOperationException("A paged adapter can't be filtered.");
+    }
+
+    @Override
+    protected void removeItems(int[] sortedPositions) {
+        // Shift the loaded models down over the removed ones, in place: each model is read before
+        // its slot is written, since it only moves to lower positions
+        int itemCount = mItemCount - sortedPositions.length;
+        int removedCount = 0;
+        for (int i = 0; i < mPages.size(); i++) {
+            int page = mPages.keyAt(i);
+            Object[] models = mPages.valueAt(i);
+            for (int j = 0; j < mPageSize; j++) {
+                int position = page * mPageSize + j;
+                if (position < sortedPositions[0]) {
+                    continue;
+                }
+                while (removedCount < sortedPositions.length
+                        && sortedPositions[removedCount] <= position + removedCount) {
+                    removedCount++;
+                }
+                models[j] = (position < itemCount) ? getItem(position + removedCount) : null;
+            }
+        }
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (mPages.keyAt(i) * mPageSize >= itemCount) {
+                mPages.removeAt(i);
+            }
+        }
+        mItemCount = itemCount;
+        onPositionsShifted();
+    }
+
+    /**
+     * Drops the pages being loaded, they are for the previous positions, and loads the missing
+     * ones again
+     */
+    private void onPositionsShifted() {
+        mGeneration++;
+        mLoadingPages.clear();
+        updatePages();
+    }
+
+    /**
+     * Evicts the pages far from the visible cards, and loads the missing ones around them
+     */
+    private void updatePages() {
+        if (mFrontMostVisiblePosition < 0 || mItemCount == 0) {
+            return;
+        }
+        int lastPosition = mItemCount - 1;
+        int firstKeptPage = Math.max(0, mBackMostVisiblePosition - 2 * mPrefetchDistance) / mPageSize;
+        int lastKeptPage = Math.min(lastPosition, mFrontMostVisiblePosition + 2 * mPrefetchDistance) / mPageSize;
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            int page = mPages.keyAt(i);
+            if (page < firstKeptPage || page > lastKeptPage) {
+                mPages.removeAt(i);
+            }
+        }
+
+        int firstPage = Math.max(0, mBackMostVisiblePosition - mPrefetchDistance) / mPageSize;
+        int lastPage = Math.min(lastPosition, mFrontMostVisiblePosition + mPrefetchDistance) / mPageSize;
+        for (int page = firstPage; page <= lastPage; page++) {
+            if (mLoadingPages.indexOfKey(page) < 0 && !isPageLoaded(page)) {
+                requestPage(page);
+            }
+        }
+    }
+
+    private boolean isPageLoaded(int page) {
+        Object[] models = mPages.get(page);
+        if (models == null) {
+            return false;
+        }
+        int count = Math.min(mPageSize, mItemCount - page * mPageSize);
+        for (int i = 0; i < count; i++) {
+            if (models[i] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void requestPage(final int page) {
+        final int generation = mGeneration;
+        final int position = page * mPageSize;
+        final int count = Math.min(mPageSize, mItemCount - position);
+        mLoadingPages.put(page, generation);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<Model> models = loadPage(position, count);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(page, generation, models);
+                    }
+                });
+            }
+        });
+    }
+
+    private void onPageLoaded(int page, int generation, List<Model> loadedModels) {
+        if (generation != mGeneration) {
+            // The positions shifted since, the page was requested again if it is still needed
+            return;
+        }
+        mLoadingPages.delete(page);
+        int lastPosition = mItemCount - 1;
+        int firstKeptPage = Math.max(0, mBackMostVisiblePosition - 2 * mPrefetchDistance) / mPageSize;
+        int lastKeptPage = Math.min(lastPosition, mFrontMostVisiblePosition + 2 * mPrefetchDistance) / mPageSize;
+        if (page < firstKeptPage || page > lastKeptPage) {
+            return;
+        }
+
+        // Only the items that were missing need to be rebound
+        Object[] models = mPages.get(page);
+        if (models == null) {
+            models = new Object[mPageSize];
+            mPages.put(page, models);
+        }
+        int position = page * mPageSize;
+        int count = Math.min(loadedModels.size(), Math.min(mPageSize, mItemCount - position));
+        int firstChanged = -1;
+        int lastChanged = -1;
+        for (int i = 0; i < count; i++) {
+            if (models[i] == null) {
+                if (firstChanged < 0) {
+                    firstChanged = i;
+                }
+                lastChanged = i;
+            }
+            models[i] = loadedModels.get(i);
+        }
+        if (firstChanged >= 0) {
+            notifyItemRangeChanged(position + firstChanged, lastChanged - firstChanged + 1);
+        }
+    }
+}
@@ -1,16 +1,45 @@
 package com.wirelesspienetwork.overview.model;
 
 import android.content.Context;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
 import android.view.ViewGroup;
 
 import com.wirelesspienetwork.overview.misc.Configuration;
+import com.wirelesspienetwork.overview.misc.MpscQueue;
+import com.wirelesspienetwork.overview.misc.PersistentVector;
 import com.wirelesspienetwork.overview.views.StackViewCard;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Object> {
 
+    private static final String TAG = "StackViewAdapter";
+
+    /**
+     * Card detail levels, from the cards at the front of the stack to the ones far in the back
+     */
+    public static final int DETAIL_LEVEL_FULL = 0;
+    public static final int DETAIL_LEVEL_REDUCED = 1;
+    public static final int DETAIL_LEVEL_MINIMAL = 2;
+
+    /**
+     * The group id of the items that are not part of a group, see {@link #getGroupId(int)}
+     */
+    public static final long NO_GROUP = -1;
+
+    /**
+     * The id of the items without a stable id, see {@link #getItemId(int)}
+     */
+    public static final long NO_ID = -1;
+
     /**
      * Task stack callbacks
      */
@@ -18,16 +47,79 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
         void onCardAdded(StackViewAdapter adapter, int position);
 
         void onCardRemoved(StackViewAdapter adapter, int position);
+
+        /**
+         * Called once for a batch of removals, positions are sorted in ascending order and refer to
+         * the items before any of them was removed.
+         */
+        void onCardsRemoved(StackViewAdapter adapter, int[] positions);
+
+        /**
+         * Like {@link #onCardsRemoved(StackViewAdapter, int[])}, for the items the filter query
+         * hides: they are not dismissed, they come back with a wider query.
+         */
+        void onCardsHidden(StackViewAdapter adapter, int[] positions);
+
+        void onCardMoved(StackViewAdapter adapter, int fromPosition, int toPosition);
+
+        /**
+         * Called when the group made of the items from firstPosition to lastPosition, inclusive,
+         * is expanded or collapsed.
+         */
+        void onGroupChanged(StackViewAdapter adapter, int firstPosition, int lastPosition, boolean expanded);
+
+        void onCardsChanged(StackViewAdapter adapter, int firstPosition, int count);
+
+        /**
+         * Called when all the items are replaced
+         */
+        void onDataSetChanged(StackViewAdapter adapter);
+
+        /**
+         * Called on the UI thread when changes were posted from other threads. The callbacks call
+         * {@link #applyPendingUpdates()} when it suits them, eg. at the start of the next frame.
+         */
+        void onUpdatesPending(StackViewAdapter adapter);
     }
 
     private Callbacks mCallbacks;
 
-    // 这个只是单纯用来计数的
-    private List<Model> mItems = new ArrayList<>();
+    // The expanded groups, all the other groups are collapsed
+    private HashSet<Long> mExpandedGroups = new HashSet<>();
 
+    // 这个只是单纯用来计数的, every change replaces it with a new version
+    private PersistentVector<Model> mItems = PersistentVector.empty();
+
+    // All the items and their token index, only created once a filter query is set
+    private StackViewFilter<Model> mFilter;
+    // The last non empty filter query, re-applied when all the items are replaced
+    private String mFilterQuery;
+
+    // The changes posted from any thread, and whether the UI thread was told about them
+    private final MpscQueue<StackViewUpdate<Model>> mPendingUpdates = new MpscQueue<>();
+    private final AtomicBoolean mUpdatesRequested = new AtomicBoolean();
+    // Only used by applyPendingUpdates(), on the UI thread
+    private final ArrayList<StackViewUpdate<Model>> mDrainedUpdates = new ArrayList<>();
+    private final ArrayList<StackViewUpdate<Model>> mDrainedRemovals = new ArrayList<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mUpdatesPendingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCallbacks != null) {
+                mCallbacks.onUpdatesPending(StackViewAdapter.this);
+            } else {
+                applyPendingUpdates();
+            }
+        }
+    };
+
+    /**
+     * The models are copied: later changes to the list are not seen by the adapter, use the
+     * notify*() methods instead.
+     */
     protected StackViewAdapter(List<Model> models) {
         if (models != null) {
-            mItems = models;
+            mItems = PersistentVector.of(models);
         }
     }
 
@@ -45,11 +137,11 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
      * @param position 位置
      */
     public void notifyDataSetInserted(Model model, int position) {
-        if (position < 0 || position > mItems.size()) {
+        if (position < 0 || position > getNumberOfItems()) {
             throw new IllegalArgumentException("Position is out of bounds.");
         }
 
-        mItems.add(position, model);
+        insertItem(position, model);
 
         if (mCallbacks != null) {
             mCallbacks.onCardAdded(this, position);
@@ -60,11 +152,11 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
      * Removes a task
      */
     public void notifyDataSetRemoved(int position) {
-        if (position < 0 || position > mItems.size()) {
+        if (position < 0 || position >= getNumberOfItems()) {
             throw new IllegalArgumentException("Position is out of bounds.");
         }
 
-        mItems.remove(position);
+        removeItems(new int[]{position});
 
         if (mCallbacks != null) {
             // Notify that a task has been removed
@@ -73,30 +165,370 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
     }
 
     /**
-     * 只不过是删除然后再重新添加罢了，来实现改变某项内容
+     * Removes several items at once, the positions refer to the items before any of them is
+     * removed. The stack relayouts once for the whole batch.
+     */
+    public void notifyDataSetRemoved(int[] positions) {
+        int[] sortedPositions = Arrays.copyOf(positions, positions.length);
+        Arrays.sort(sortedPositions);
+        for (int i = 0; i < sortedPositions.length; i++) {
+            if (sortedPositions[i] < 0 || sortedPositions[i] >= getNumberOfItems()) {
+                throw new IllegalArgumentException("Position is out of bounds.");
+            }
+            if (i > 0 && sortedPositions[i] == sortedPositions[i - 1]) {
+                throw new IllegalArgumentException("Positions must be distinct.");
+            }
+        }
+
+        removeItems(sortedPositions);
+
+        if (mCallbacks != null && sortedPositions.length > 0) {
+            mCallbacks.onCardsRemoved(this, sortedPositions);
+        }
+    }
+
+    /**
+     * Moves an item, the cards in between shift by one towards fromPosition. Unlike a removal
+     * followed by an insertion, no card is rebound.
+     */
+    public void notifyItemMoved(int fromPosition, int toPosition) {
+        if (fromPosition < 0 || fromPosition >= getNumberOfItems()
+                || toPosition < 0 || toPosition >= getNumberOfItems()) {
+            throw new IllegalArgumentException("Position is out of bounds.");
+        }
+        if (fromPosition == toPosition) {
+            return;
+        }
+
+        moveItem(fromPosition, toPosition);
+
+        if (mCallbacks != null) {
+            mCallbacks.onCardMoved(this, fromPosition, toPosition);
+        }
+    }
+
+    /**
+     * Rebinds the cards of the items from firstPosition to firstPosition + count, exclusive,
+     * whose models or contents changed. Cards showing a placeholder get their real content.
+     */
+    public void notifyItemRangeChanged(int firstPosition, int count) {
+        if (firstPosition < 0 || count < 0 || firstPosition + count > getNumberOfItems()) {
+            throw new IllegalArgumentException("Position is out of bounds.");
+        }
+
+        if (mCallbacks != null && count > 0) {
+            mCallbacks.onCardsChanged(this, firstPosition, count);
+        }
+    }
+
+    /**
+     * Posts an insertion, from any thread. Like the other post*() methods it doesn't block or
+     * lock: the changes are queued and applied together on the UI thread, before the next frame
+     * is drawn. Positions refer to the items with all the changes posted before applied.
+     */
+    public void postDataSetInserted(Model model, int position) {
+        postUpdate(new StackViewUpdate<>(StackViewUpdate.INSERT, model, position, 0));
+    }
+
+    /**
+     * Posts a removal, from any thread. An item inserted and removed again before the changes
+     * are applied never gets a card.
+     */
+    public void postDataSetRemoved(int position) {
+        postUpdate(new StackViewUpdate<Model>(StackViewUpdate.REMOVE, null, position, 0));
+    }
+
+    /**
+     * Posts a move, from any thread
+     */
+    public void postItemMoved(int fromPosition, int toPosition) {
+        postUpdate(new StackViewUpdate<Model>(StackViewUpdate.MOVE, null, fromPosition, toPosition));
+    }
+
+    private void postUpdate(StackViewUpdate<Model> update) {
+        mPendingUpdates.offer(update);
+        // Only the first change since the last drain needs to reach the UI thread
+        if (mUpdatesRequested.compareAndSet(false, true)) {
+            mMainHandler.post(mUpdatesPendingRunnable);
+        }
+    }
+
+    /**
+     * Applies the changes posted so far, on the UI thread. Consecutive removals are applied as a
+     * single batch, see {@link #notifyDataSetRemoved(int[])}.
+     */
+    public void applyPendingUpdates() {
+        // Reset first, a change posted while draining is then either drained or requested again
+        mUpdatesRequested.set(false);
+        ArrayList<StackViewUpdate<Model>> updates = mDrainedUpdates;
+        for (StackViewUpdate<Model> update = mPendingUpdates.poll(); update != null;
+                update = mPendingUpdates.poll()) {
+            updates.add(update);
+        }
+        StackViewUpdate.coalesce(updates);
+
+        // The posting threads couldn't know the number of items when their changes are applied,
+        // so the changes that no longer fit are dropped rather than thrown on the UI thread
+        for (int i = 0; i < updates.size(); ) {
+            StackViewUpdate<Model> update = updates.get(i);
+            int itemCount = getNumberOfItems();
+            if (update.type == StackViewUpdate.INSERT) {
+                if (0 <= update.position && update.position <= itemCount) {
+                    notifyDataSetInserted(update.model, update.position);
+                } else {
+                    logDroppedUpdate(update, itemCount);
+                }
+                i++;
+            } else if (update.type == StackViewUpdate.MOVE) {
+                if (0 <= update.position && update.position < itemCount
+                        && 0 <= update.toPosition && update.toPosition < itemCount) {
+                    notifyItemMoved(update.position, update.toPosition);
+                } else {
+                    logDroppedUpdate(update, itemCount);
+                }
+                i++;
+            } else {
+                // Batch the consecutive removals that fit
+                ArrayList<StackViewUpdate<Model>> removals = mDrainedRemovals;
+                for (; i < updates.size() && updates.get(i).type == StackViewUpdate.REMOVE; i++) {
+                    StackViewUpdate<Model> removal = updates.get(i);
+                    if (0 <= removal.position && removal.position < itemCount - removals.size()) {
+                        removals.add(removal);
+                    } else {
+                        logDroppedUpdate(removal, itemCount - removals.size());
+                    }
+                }
+                if (removals.size() == 1) {
+                    notifyDataSetRemoved(removals.get(0).position);
+                } else if (removals.size() > 1) {
+                    notifyDataSetRemoved(StackViewUpdate.getRemovedPositions(removals, 0, removals.size()));
+                }
+                removals.clear();
+            }
+        }
+        updates.clear();
+    }
+
+    private static void logDroppedUpdate(StackViewUpdate<?> update, int itemCount) {
+        Log.d(TAG, "Dropped a posted change out of bounds, type: " + update.type + " position: "
+                + update.position + " to: " + update.toPosition + " item count: " + itemCount);
+    }
+
+    /**
+     * Inserts the model into the items, the notifyDataSet*() methods have checked the position
+     */
+    protected void insertItem(int position, Model model) {
+        mItems = mItems.withInserted(position, model);
+        if (mFilter != null) {
+            mFilter.insert(position, model);
+        }
+    }
+
+    /**
+     * Removes the items at these distinct positions, sorted in ascending order
+     */
+    protected void removeItems(int[] sortedPositions) {
+        // Remove from the end so that the remaining positions stay valid
+        for (int i = sortedPositions.length - 1; i >= 0; i--) {
+            mItems = mItems.withRemoved(sortedPositions[i]);
+            if (mFilter != null) {
+                mFilter.remove(sortedPositions[i]);
+            }
+        }
+    }
+
+    /**
+     * Moves the item at fromPosition to toPosition
+     */
+    protected void moveItem(int fromPosition, int toPosition) {
+        mItems = mItems.withMoved(fromPosition, toPosition);
+        if (mFilter != null) {
+            mFilter.move(fromPosition, toPosition);
+        }
+    }
+
+    /**
+     * Returns whether items can be inserted, see {@link #insertItem(int, Object)}. The stack only
+     * keeps swiped away cards for undo if they can be inserted back.
+     */
+    public boolean supportsInserts() {
+        return true;
+    }
+
+    /**
+     * Returns whether items can be moved, see {@link #moveItem(int, int)}. The stack only lets
+     * cards be dragged to a new position if they can.
+     */
+    public boolean supportsMoves() {
+        return true;
+    }
+
+    /**
+     * Returns the model at this position. Only called for the loaded items, see
+     * {@link #isItemLoaded(int)}.
+     */
+    protected Model getItem(int position) {
+        return mItems.get(position);
+    }
+
+    /**
+     * Returns whether the model at this position is available. The cards of the items that are
+     * not get a placeholder, see {@link #onBindPlaceholder(ViewHolder)}, until
+     * {@link #notifyItemRangeChanged(int, int)} is called for them.
+     */
+    public boolean isItemLoaded(int position) {
+        return true;
+    }
+
+    /**
+     * Called when the range of visible cards changes. Adapters loading their models lazily can
+     * use it to load the ones around the visible cards.
+     */
+    public void onVisibleRangeChanged(int frontMostPosition, int backMostPosition) {
+    }
+
+    /**
+     * 替换全部元素，所有卡片重新绑定
+     * Replaces all the items with a copy of the specified ones, every card is rebound. The filter
+     * query, if any, is applied to the new items.
      */
     public void notifyDataSetChanged(List<Model> newItems) {
-        if (newItems == null) {
-            newItems = new ArrayList<>();
+        mItems = (newItems != null) ? PersistentVector.of(newItems) : PersistentVector.<Model>empty();
+        mFilter = null;
+        if (mFilterQuery != null) {
+            // Index the new items and only keep the ones the query matches
+            mFilter = new StackViewFilter<>(this, mItems);
+            mFilter.setQuery(mFilterQuery);
+            int[] hiddenPositions = mFilter.hideUnmatched();
+            for (int i = hiddenPositions.length - 1; i >= 0; i--) {
+                mItems = mItems.withRemoved(hiddenPositions[i]);
+            }
         }
 
-        for (int i = 0; i < mItems.size(); ++i) {
-            if (mCallbacks != null) {
-                mCallbacks.onCardRemoved(this, i);
+        if (mCallbacks != null) {
+            mCallbacks.onDataSetChanged(this);
+        }
+    }
+
+    /**
+     * Only shows the items whose text, see {@link #getFilterText(Object)}, has a word starting
+     * with each of the query's words, ignoring case. The index of the words is built on the first
+     * call and then updated along with the items. A query narrowing the previous one, eg. when a
+     * letter is typed, only removes cards, in a single batch: the remaining cards are neither
+     * rebound nor moved out of place. An empty or null query shows all the items again. While a
+     * query is set, the positions passed to and returned by this adapter are the visible ones,
+     * see {@link #getUnderlyingPosition(int)}.
+     */
+    public void setFilterQuery(CharSequence query) {
+        // Copied, the query may be an editable text
+        mFilterQuery = (query != null && query.length() > 0) ? query.toString() : null;
+        if (mFilter == null) {
+            if (mFilterQuery == null) {
+                return;
             }
+            mFilter = new StackViewFilter<>(this, mItems);
         }
+        boolean narrowing = mFilter.setQuery(query);
 
-        for (int i = 0; i < newItems.size(); ++i) {
+        // Remove the cards the query filters out
+        int[] hiddenPositions = mFilter.hideUnmatched();
+        if (hiddenPositions.length > 0) {
+            for (int i = hiddenPositions.length - 1; i >= 0; i--) {
+                mItems = mItems.withRemoved(hiddenPositions[i]);
+            }
             if (mCallbacks != null) {
-                mCallbacks.onCardAdded(this, i);
+                mCallbacks.onCardsHidden(this, hiddenPositions);
+            }
+        }
+
+        // Add back the cards the previous query filtered out, in order so each position is valid
+        if (!narrowing) {
+            int[] shownPositions = mFilter.showMatched();
+            for (int i = 0; i < shownPositions.length; i++) {
+                mItems = mItems.withInserted(shownPositions[i], mFilter.getVisibleModel(shownPositions[i]));
+                if (mCallbacks != null) {
+                    mCallbacks.onCardAdded(this, shownPositions[i]);
+                }
             }
         }
     }
 
+    /**
+     * Returns the position of the item at this visible position among all the items, including
+     * the ones the filter query hides.
+     */
+    public int getUnderlyingPosition(int position) {
+        if (position < 0 || position >= getNumberOfItems()) {
+            throw new IllegalArgumentException("Position is out of bounds.");
+        }
+        return (mFilter != null) ? mFilter.getUnderlyingPosition(position) : position;
+    }
+
+    /**
+     * Expands/collapses the group of the item at this position, does nothing if it is not part of
+     * a group. The members of an expanding group fan out from behind its front most card, which
+     * stays in place.
+     */
+    public void setGroupExpanded(int position, boolean expanded) {
+        if (position < 0 || position >= getNumberOfItems()) {
+            throw new IllegalArgumentException("Position is out of bounds.");
+        }
+        long groupId = getGroupId(position);
+        if (groupId == NO_GROUP || isGroupExpanded(groupId) == expanded) {
+            return;
+        }
+        if (expanded) {
+            mExpandedGroups.add(groupId);
+        } else {
+            mExpandedGroups.remove(groupId);
+        }
+
+        // The members of a group are adjacent
+        int firstPosition = position;
+        while (firstPosition > 0 && getGroupId(firstPosition - 1) == groupId) {
+            firstPosition--;
+        }
+        int lastPosition = position;
+        while (lastPosition < getNumberOfItems() - 1 && getGroupId(lastPosition + 1) == groupId) {
+            lastPosition++;
+        }
+
+        if (mCallbacks != null) {
+            mCallbacks.onGroupChanged(this, firstPosition, lastPosition, expanded);
+        }
+    }
+
+    /**
+     * Expands the group of the item at this position if it is collapsed, collapses it otherwise.
+     * Typically called when the card leading a collapsed group is tapped.
+     */
+    public void toggleGroup(int position) {
+        setGroupExpanded(position, !isGroupExpanded(getGroupId(position)));
+    }
+
+    /**
+     * Returns whether the group is expanded. Groups start collapsed.
+     */
+    public boolean isGroupExpanded(long groupId) {
+        return groupId == NO_GROUP || mExpandedGroups.contains(groupId);
+    }
+
+    /**
+     * Returns the current items, see {@link #snapshot()}
+     */
     public List<Model> getData() {
         return mItems;
     }
 
+    /**
+     * Returns an immutable snapshot of the current items, in O(1). Take it on the UI thread, it
+     * can then be read from any thread, eg. for diffing or prefetching, while the adapter goes on
+     * changing: later changes make new versions that share most of their structure with it.
+     */
+    public PersistentVector<Model> snapshot() {
+        return mItems;
+    }
+
     public abstract VH onCreateViewHolder(Context context, ViewGroup parent);
 
     /**
@@ -104,7 +536,91 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
      */
     public abstract void onBindViewHolder(VH vh);
 
-    public final int getNumberOfItems() {
+    /**
+     * Binds a cheap placeholder for vh.model, used for the cards the stack only shows in passing,
+     * like during a long {@code scrollToCard()}. The card gets a full
+     * {@link #onBindViewHolder(ViewHolder)} once the stack comes to rest. vh.model is null if the
+     * item is not loaded yet, see {@link #isItemLoaded(int)}. By default the item view is hidden,
+     * leaving only the card container.
+     */
+    public void onBindPlaceholder(VH vh) {
+        vh.itemView.setVisibility(View.INVISIBLE);
+    }
+
+    /**
+     * Called when a bound card moves across one of the detail level thresholds, and once right
+     * after each bind. Implementations can drop or lazily add expensive subviews (text, icons,
+     * buttons) of cards that are too far in the back to be seen.
+     *
+     * @param level one of {@link #DETAIL_LEVEL_FULL}, {@link #DETAIL_LEVEL_REDUCED} or
+     *              {@link #DETAIL_LEVEL_MINIMAL}
+     */
+    public void onDetailLevelChanged(VH vh, int level) {
+    }
+
+    /**
+     * Returns the drawable used to paint the card at this position when the stack is in
+     * lightweight rendering mode, where cards that are not being interacted with are drawn
+     * directly on the stack's canvas instead of being bound to a view. This is called on every
+     * frame for every such card, so implementations should return a cached drawable. Returning
+     * null makes the stack fall back to a real view for this position.
+     */
+    public Drawable getCardDrawable(int position) {
+        return null;
+    }
+
+    /**
+     * Returns the height of the card at this position relative to the full card height, in
+     * (0, 1]. It also scales how much of this card peeks out from behind the next one, so compact
+     * cards take less room in the stack.
+     */
+    public float getItemHeightWeight(int position) {
+        return 1f;
+    }
+
+    /**
+     * Returns the text matched against the filter query, see
+     * {@link #setFilterQuery(CharSequence)}. It is read once per item, when the item is added or
+     * the first query is set. Items without text only match an empty query.
+     */
+    public CharSequence getFilterText(Model model) {
+        return null;
+    }
+
+    /**
+     * Returns the group of the item at this position, or {@link #NO_GROUP}. The items of a group
+     * must be at adjacent positions. The front most one leads the group: while the group is
+     * collapsed, it is the only card laid out, bound and drawn. This is called on every change to
+     * the items around this position, so it should be cheap.
+     */
+    public long getGroupId(int position) {
+        return NO_GROUP;
+    }
+
+    /**
+     * Returns a stable id for the item at this position, or {@link #NO_ID}. The stack saves the
+     * id of its front most visible card with its state, and scrolls back to that card when it is
+     * restored, even if the item moved in the meantime. Only called for the loaded items, see
+     * {@link #isItemLoaded(int)}.
+     */
+    public long getItemId(int position) {
+        return NO_ID;
+    }
+
+    /**
+     * Returns the weight the stack lays the card at this position out with: its height weight, or
+     * 0 for the members hidden behind the card leading a collapsed group.
+     */
+    public final float getCardWeight(int position) {
+        long groupId = getGroupId(position);
+        if (groupId != NO_GROUP && position + 1 < getNumberOfItems() && getGroupId(position + 1) == groupId
+                && !isGroupExpanded(groupId)) {
+            return 0f;
+        }
+        return getItemHeightWeight(position);
+    }
+
+    public int getNumberOfItems() {
         return mItems.size();
     }
 
@@ -117,7 +633,33 @@ public abstract class StackViewAdapter<VH extends ViewHolder, Model extends Obje
     }
 
     public final void bindViewHolder(VH vh, int position) {
-        vh.model = mItems.get(position);
+        if (!isItemLoaded(position)) {
+            // The card gets its real content once the model is loaded
+            bindPlaceholder(vh, position);
+            return;
+        }
+        vh.model = getItem(position);
+        if (vh.isPlaceholder()) {
+            vh.setPlaceholder(false);
+            vh.itemView.setVisibility(View.VISIBLE);
+        }
         onBindViewHolder(vh);
+        // Make sure the next detail level update reaches the freshly bound card
+        vh.setDetailLevel(-1);
+    }
+
+    public final void bindPlaceholder(VH vh, int position) {
+        vh.model = isItemLoaded(position) ? getItem(position) : null;
+        vh.setPlaceholder(true);
+        onBindPlaceholder(vh);
+        vh.setDetailLevel(-1);
+    }
+
+    public final void updateDetailLevel(VH vh, int level) {
+        // Placeholders have no detail to trim
+        if (!vh.isPlaceholder() && vh.getDetailLevel() != level) {
+            vh.setDetailLevel(level);
+            onDetailLevelChanged(vh, level);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package com.wirelesspienetwork.overview.model;
+
+import com.wirelesspienetwork.overview.misc.PersistentVector;
+import com.wirelesspienetwork.overview.misc.ProgressTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 卡片过滤
+ * The filtered view of the items an adapter shows while a filter query is set. It keeps all the
+ * items in order, the visible ones, and an index from the tokens of the items' text to the items.
+ * The index is updated along with each item change instead of being rebuilt for each query.
+ * Visible positions are the adapter's positions, underlying positions are among all the items.
+ * The visibility of all the items is kept as weights of 1 or 0, so that either position is found
+ * from the other in O(log n).
+ */
+class StackViewFilter<Model> {
+
+    private static final String[] NO_TOKENS = new String[0];
+
+    static class Entry<Model> {
+        final Model model;
+        final String[] tokens;
+        boolean visible = true;
+        // The query this entry was last matched against, and how many of its tokens matched
+        int matchGeneration = -1;
+        int matchCount;
+
+        Entry(Model model, String[] tokens) {
+            this.model = model;
+            this.tokens = tokens;
+        }
+    }
+
+    private StackViewAdapter<?, Model> mAdapter;
+    // All the items in order, and 1 for each visible one, 0 for each hidden one
+    private PersistentVector<Entry<Model>> mEntries;
+    private ProgressTree mVisibility = new ProgressTree();
+    private TreeMap<String, ArrayList<Entry<Model>>> mTokenIndex = new TreeMap<>();
+    private String[] mQueryTokens = NO_TOKENS;
+    private int mGeneration;
+    private float[] mTmpWeights = new float[0];
+
+    StackViewFilter(StackViewAdapter<?, Model> adapter, List<Model> items) {
+        mAdapter = adapter;
+        ArrayList<Entry<Model>> entries = new ArrayList<>(items.size());
+        for (Model model : items) {
+            entries.add(createEntry(model));
+        }
+        mEntries = PersistentVector.of(entries);
+        buildVisibility();
+    }
+
+    /**
+     * Sets the query, returns whether it only narrows the previous one, ie. whether the items it
+     * matches are a subset of the ones the previous query matched.
+     */
+    boolean setQuery(CharSequence query) {
+        String[] queryTokens = tokenize(query);
+        boolean narrowing = queryTokens.length >= mQueryTokens.length;
+        for (int i = 0; narrowing && i < mQueryTokens.length; i++) {
+            narrowing = queryTokens[i].startsWith(mQueryTokens[i]);
+        }
+        mQueryTokens = queryTokens;
+
+        // Count, for each item, the consecutive query tokens that prefix one of its tokens
+        mGeneration++;
+        for (int i = 0; i < queryTokens.length; i++) {
+            String queryToken = queryTokens[i];
+            for (Map.Entry<String, ArrayList<Entry<Model>>> posting : mTokenIndex.subMap(queryToken, true,
+                    queryToken + Character.MAX_VALUE, false).entrySet()) {
+                ArrayList<Entry<Model>> entries = posting.getValue();
+                for (int j = 0; j < entries.size(); j++) {
+                    Entry<Model> entry = entries.get(j);
+                    if (i == 0 && entry.matchGeneration != mGeneration) {
+                        entry.matchGeneration = mGeneration;
+                        entry.matchCount = 1;
+                    } else if (entry.matchGeneration == mGeneration && entry.matchCount == i) {
+                        entry.matchCount = i + 1;
+                    }
+                }
+            }
+        }
+        return narrowing;
+    }
+
+    /**
+     * Hides the visible items the query doesn't match, returns their visible positions in
+     * ascending order. This is O(visible items * log(all items)).
+     */
+    int[] hideUnmatched() {
+        int visibleCount = getVisibleCount();
+        int hiddenCount = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            if (!matches(mEntries.get(getUnderlyingPosition(i)))) {
+                hiddenCount++;
+            }
+        }
+        int[] hiddenPositions = new int[hiddenCount];
+        if (hiddenCount == 0) {
+            return hiddenPositions;
+        }
+
+        // Find the hidden items before changing any weight, since that shifts the visible positions
+        int[] underlyingPositions = new int[hiddenCount];
+        int hiddenIndex = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            int underlyingPosition = getUnderlyingPosition(i);
+            if (!matches(mEntries.get(underlyingPosition))) {
+                hiddenPositions[hiddenIndex] = i;
+                underlyingPositions[hiddenIndex++] = underlyingPosition;
+            }
+        }
+        for (int i = 0; i < hiddenCount; i++) {
+            mEntries.get(underlyingPositions[i]).visible = false;
+            mVisibility.set(underlyingPositions[i], 0f);
+        }
+        return hiddenPositions;
+    }
+
+    /**
+     * Shows the hidden items the query matches, returns their new visible positions in ascending
+     * order. This is O(all items).
+     */
+    int[] showMatched() {
+        int shownCount = 0;
+        for (Entry<Model> entry : mEntries) {
+            if (!entry.visible && matches(entry)) {
+                shownCount++;
+            }
+        }
+        int[] shownPositions = new int[shownCount];
+        if (shownCount == 0) {
+            return shownPositions;
+        }
+
+        int shownIndex = 0;
+        int visibleCount = 0;
+        for (Entry<Model> entry : mEntries) {
+            if (!entry.visible && matches(entry)) {
+                entry.visible = true;
+                shownPositions[shownIndex++] = visibleCount;
+            }
+            if (entry.visible) {
+                visibleCount++;
+            }
+        }
+        buildVisibility();
+        return shownPositions;
+    }
+
+    /**
+     * Returns the model at this visible position
+     */
+    Model getVisibleModel(int visiblePosition) {
+        return mEntries.get(getUnderlyingPosition(visiblePosition)).model;
+    }
+
+    /**
+     * Returns the position among all the items of the item at this visible position
+     */
+    int getUnderlyingPosition(int visiblePosition) {
+        // The visible item with this many visible items before it
+        return mVisibility.findLastIndexAtOrBefore(visiblePosition);
+    }
+
+    /**
+     * Inserts an item at this visible position. It is shown whether it matches the query or not,
+     * until the next query.
+     */
+    void insert(int visiblePosition, Model model) {
+        Entry<Model> entry = createEntry(model);
+        int visibleCount = getVisibleCount();
+        int underlyingPosition;
+        if (visiblePosition < visibleCount) {
+            underlyingPosition = getUnderlyingPosition(visiblePosition);
+        } else if (visibleCount > 0) {
+            underlyingPosition = getUnderlyingPosition(visibleCount - 1) + 1;
+        } else {
+            underlyingPosition = mEntries.size();
+        }
+        mEntries = mEntries.withInserted(underlyingPosition, entry);
+        mVisibility.insert(underlyingPosition, 1f);
+    }
+
+    /**
+     * Removes the item at this visible position
+     */
+    void remove(int visiblePosition) {
+        int underlyingPosition = getUnderlyingPosition(visiblePosition);
+        Entry<Model> entry = mEntries.get(underlyingPosition);
+        mEntries = mEntries.withRemoved(underlyingPosition);
+        mVisibility.remove(underlyingPosition);
+        for (int i = 0; i < entry.tokens.length; i++) {
+            ArrayList<Entry<Model>> entries = mTokenIndex.get(entry.tokens[i]);
+            entries.remove(entry);
+            if (entries.isEmpty()) {
+                mTokenIndex.remove(entry.tokens[i]);
+            }
+        }
+    }
+
+    /**
+     * Moves the item at this visible position, it keeps its place among the hidden items next to
+     * its new visible neighbours.
+     */
+    void move(int fromVisiblePosition, int toVisiblePosition) {
+        int fromPosition = getUnderlyingPosition(fromVisiblePosition);
+        Entry<Model> entry = mEntries.get(fromPosition);
+        mEntries = mEntries.withRemoved(fromPosition);
+        mVisibility.remove(fromPosition);
+
+        // Go right before the visible item that will follow it, or right after the one before it
+        int visibleCount = getVisibleCount();
+        int underlyingPosition;
+        if (toVisiblePosition < visibleCount) {
+            underlyingPosition = getUnderlyingPosition(toVisiblePosition);
+        } else if (toVisiblePosition > 0) {
+            underlyingPosition = getUnderlyingPosition(toVisiblePosition - 1) + 1;
+        } else {
+            underlyingPosition = mEntries.size();
+        }
+        mEntries = mEntries.withInserted(underlyingPosition, entry);
+        mVisibility.insert(underlyingPosition, 1f);
+    }
+
+    private int getVisibleCount() {
+        return Math.round(mVisibility.getTotal());
+    }
+
+    /**
+     * Rebuilds the visibility weights from the entries, in O(n)
+     */
+    private void buildVisibility() {
+        int count = mEntries.size();
+        if (mTmpWeights.length < count) {
+            mTmpWeights = new float[count];
+        }
+        int i = 0;
+        for (Entry<Model> entry : mEntries) {
+            mTmpWeights[i++] = entry.visible ? 1f : 0f;
+        }
+        mVisibility.build(mTmpWeights, count);
+    }
+
+    private boolean matches(Entry<Model> entry) {
+        return mQueryTokens.length == 0
+                || (entry.matchGeneration == mGeneration && entry.matchCount == mQueryTokens.length);
+    }
+
+    private Entry<Model> createEntry(Model model) {
+        Entry<Model> entry = new Entry<>(model, tokenize(mAdapter.getFilterText(model)));
+        for (int i = 0; i < entry.tokens.length; i++) {
+            ArrayList<Entry<Model>> entries = mTokenIndex.get(entry.tokens[i]);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                mTokenIndex.put(entry.tokens[i], entries);
+            }
+            entries.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Splits the text into distinct lower case words
+     */
+    private static String[] tokenize(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return NO_TOKENS;
+        }
+        String lowerCaseText = text.toString().toLowerCase(Locale.getDefault());
+        ArrayList<String> tokens = new ArrayList<>();
+        int tokenStart = -1;
+        for (int i = 0; i <= lowerCaseText.length(); i++) {
+            boolean inToken = i < lowerCaseText.length() && Character.isLetterOrDigit(lowerCaseText.charAt(i));
+            if (inToken && tokenStart < 0) {
+                tokenStart = i;
+            } else if (!inToken && tokenStart >= 0) {
+                String token = lowerCaseText.substring(tokenStart, i);
+                if (!tokens.contains(token)) {
+                    tokens.add(token);
+                }
+                tokenStart = -1;
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+}
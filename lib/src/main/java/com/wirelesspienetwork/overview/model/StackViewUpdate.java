@@ -0,0 +1,144 @@
+package com.wirelesspienetwork.overview.model;
+
+import java.util.ArrayList;
+
+/**
+ * 跨线程的适配器更新
+ * A change posted to an adapter from any thread, to be applied on the UI thread. Its positions
+ * refer to the items with all the changes posted before it applied.
+ */
+final class StackViewUpdate<Model> {
+
+    static final int INSERT = 0;
+    static final int REMOVE = 1;
+    static final int MOVE = 2;
+
+    final int type;
+    final Model model;
+    int position;
+    int toPosition;
+
+    StackViewUpdate(int type, Model model, int position, int toPosition) {
+        this.type = type;
+        this.model = model;
+        this.position = position;
+        this.toPosition = toPosition;
+    }
+
+    /**
+     * Drops the items inserted and removed again within the updates, along with their moves, and
+     * fixes the positions of the updates in between.
+     */
+    static <Model> void coalesce(ArrayList<StackViewUpdate<Model>> updates) {
+        ArrayList<StackViewUpdate<Model>> coalesced = new ArrayList<>(updates.size());
+        for (int i = 0; i < updates.size(); i++) {
+            StackViewUpdate<Model> update = updates.get(i);
+            int insertIndex = (update.type == REMOVE) ? findInsert(coalesced, update.position) : -1;
+            if (insertIndex < 0) {
+                coalesced.add(update);
+                continue;
+            }
+
+            // Replay the updates after the insertion without the item, position is where it is
+            int position = coalesced.remove(insertIndex).position;
+            for (int j = insertIndex; j < coalesced.size(); j++) {
+                StackViewUpdate<Model> other = coalesced.get(j);
+                if (other.type == INSERT) {
+                    if (other.position > position) {
+                        other.position--;
+                    } else {
+                        position++;
+                    }
+                } else if (other.type == REMOVE) {
+                    if (other.position < position) {
+                        position--;
+                    } else {
+                        other.position--;
+                    }
+                } else if (other.position == position) {
+                    // The item itself moved
+                    position = other.toPosition;
+                    coalesced.remove(j--);
+                } else {
+                    int movedPosition = getMovedPosition(position, other.position, other.toPosition);
+                    other.position -= (position < other.position) ? 1 : 0;
+                    other.toPosition -= (movedPosition < other.toPosition) ? 1 : 0;
+                    position = movedPosition;
+                    if (other.position == other.toPosition) {
+                        coalesced.remove(j--);
+                    }
+                }
+            }
+        }
+        updates.clear();
+        updates.addAll(coalesced);
+    }
+
+    /**
+     * Returns the index of the insertion of the item at this position after all the updates, or
+     * -1 if the item was not inserted by them.
+     */
+    private static <Model> int findInsert(ArrayList<StackViewUpdate<Model>> updates, int position) {
+        // Trace the item back to before each update
+        for (int i = updates.size() - 1; i >= 0; i--) {
+            StackViewUpdate<Model> update = updates.get(i);
+            if (update.type == INSERT) {
+                if (update.position == position) {
+                    return i;
+                } else if (update.position < position) {
+                    position--;
+                }
+            } else if (update.type == REMOVE) {
+                if (update.position <= position) {
+                    position++;
+                }
+            } else if (position == update.toPosition) {
+                position = update.position;
+            } else if (update.position < update.toPosition && update.position <= position
+                    && position < update.toPosition) {
+                position++;
+            } else if (update.position > update.toPosition && update.toPosition < position
+                    && position <= update.position) {
+                position--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the positions, before any of them is applied, of the consecutive removals from
+     * start to end, exclusive, sorted in ascending order.
+     */
+    static <Model> int[] getRemovedPositions(ArrayList<StackViewUpdate<Model>> updates, int start, int end) {
+        int[] positions = new int[end - start];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            // Skip over the positions already removed before this one
+            int position = updates.get(i).position;
+            int index = 0;
+            while (index < count && positions[index] <= position) {
+                position++;
+                index++;
+            }
+            System.arraycopy(positions, index, positions, index + 1, count - index);
+            positions[index] = position;
+            count++;
+        }
+        return positions;
+    }
+
+    /**
+     * Returns where the item at this position ends up after moving the one at fromPosition to
+     * toPosition
+     */
+    private static int getMovedPosition(int position, int fromPosition, int toPosition) {
+        if (position == fromPosition) {
+            return toPosition;
+        } else if (fromPosition < toPosition && fromPosition < position && position <= toPosition) {
+            return position - 1;
+        } else if (fromPosition > toPosition && toPosition <= position && position < fromPosition) {
+            return position + 1;
+        }
+        return position;
+    }
+}
@@ -17,6 +17,8 @@ public class ViewHolder<V extends View, Model> {
 
     private int mCurrentPosition = -1;
     private int mLastPosition = -1;
+    private int mDetailLevel = -1;
+    private boolean mPlaceholder;
 
     public ViewHolder(V view) {
         this.itemView = view;
@@ -35,6 +37,29 @@ public class ViewHolder<V extends View, Model> {
         return mLastPosition;
     }
 
+    /**
+     * Returns the detail level last reported to the adapter, or -1 if there is none yet.
+     */
+    public int getDetailLevel() {
+        return mDetailLevel;
+    }
+
+    void setDetailLevel(int level) {
+        mDetailLevel = level;
+    }
+
+    /**
+     * Returns whether this holder only has a placeholder bound, see
+     * {@link StackViewAdapter#onBindPlaceholder(ViewHolder)}.
+     */
+    public boolean isPlaceholder() {
+        return mPlaceholder;
+    }
+
+    void setPlaceholder(boolean placeholder) {
+        mPlaceholder = placeholder;
+    }
+
     public StackViewCard getContainer() {
         return mContainer;
     }
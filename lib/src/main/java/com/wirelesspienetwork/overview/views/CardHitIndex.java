@@ -0,0 +1,95 @@
+package com.wirelesspienetwork.overview.views;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * 卡片点击区域索引
+ * Index of the vertical bands covered by the visible cards, built from their transforms. Card tops
+ * never decrease from the back of the stack to the front, so the bands are naturally sorted and a
+ * point lookup is a binary search. The arrays are reused between rebuilds.
+ */
+class CardHitIndex {
+
+    private int[] mPositions = new int[0];
+    private int[] mLefts = new int[0];
+    private int[] mTops = new int[0];
+    private int[] mRights = new int[0];
+    private int[] mBottoms = new int[0];
+    // The max bottom of all the bands up to and including each index
+    private int[] mMaxBottoms = new int[0];
+    private int mSize;
+
+    /**
+     * Rebuilds the index from the transforms of the cards in the visible range, visibleRange[0] is
+     * the front most card and visibleRange[1] the back most one.
+     */
+    void rebuild(ArrayList<CardTransform> transforms, int[] visibleRange) {
+        mSize = 0;
+        if (visibleRange[0] < 0 || visibleRange[1] < 0) {
+            return;
+        }
+        ensureCapacity(visibleRange[0] - visibleRange[1] + 1);
+        for (int i = visibleRange[1]; i <= visibleRange[0]; i++) {
+            CardTransform transform = transforms.get(i);
+            if (!transform.visible) {
+                continue;
+            }
+            Rect r = transform.rect;
+            mPositions[mSize] = i;
+            mLefts[mSize] = r.left;
+            mTops[mSize] = r.top;
+            mRights[mSize] = r.right;
+            mBottoms[mSize] = r.bottom;
+            mMaxBottoms[mSize] = (mSize == 0) ? r.bottom : Math.max(mMaxBottoms[mSize - 1], r.bottom);
+            mSize++;
+        }
+    }
+
+    /**
+     * Clears the index
+     */
+    void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the position of the front most card containing the specified point, or -1.
+     */
+    int findCardAt(int x, int y) {
+        // Find the front most band starting at or above y
+        int lo = 0;
+        int hi = mSize - 1;
+        int candidate = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (mTops[mid] <= y) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // Usually that card contains the point, otherwise only walk back while a card behind
+        // could still reach down to y (ie. a taller card behind a shorter one)
+        for (int i = candidate; i >= 0 && mMaxBottoms[i] > y; i--) {
+            if (x >= mLefts[i] && x < mRights[i] && y < mBottoms[i]) {
+                return mPositions[i];
+            }
+        }
+        return -1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mPositions.length < capacity) {
+            mPositions = new int[capacity];
+            mLefts = new int[capacity];
+            mTops = new int[capacity];
+            mRights = new int[capacity];
+            mBottoms = new int[capacity];
+            mMaxBottoms = new int[capacity];
+        }
+    }
+}
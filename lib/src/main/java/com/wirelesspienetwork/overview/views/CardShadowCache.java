@@ -0,0 +1,98 @@
+package com.wirelesspienetwork.overview.views;
+
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.SparseArray;
+
+/**
+ * 卡片阴影缓存
+ * Pre-rendered card shadows for devices without real elevation. A blurred shadow is rendered only
+ * once per radius bucket into a small alpha bitmap, which is then stretched as a nine-patch under
+ * each card.
+ */
+class CardShadowCache {
+
+    private static final int SHADOW_COLOR = 0x40000000;
+    // The shadow radius is a quarter of the card's translation z
+    private static final float RADIUS_PER_Z = 0.25f;
+    // Radii are rounded to multiples of this many pixels so that only a few bitmaps are generated
+    private static final int RADIUS_BUCKET_PX = 4;
+
+    private SparseArray<Bitmap> mShadows = new SparseArray<>();
+    private Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private Rect mSrc = new Rect();
+    private Rect mDst = new Rect();
+
+    CardShadowCache() {
+        mPaint.setColor(SHADOW_COLOR);
+    }
+
+    /**
+     * Draws the shadow of a card occupying the specified rect at the specified depth.
+     */
+    void drawShadow(Canvas canvas, Rect cardRect, float translationZ, float alpha) {
+        int radius = Math.round(translationZ * RADIUS_PER_Z / RADIUS_BUCKET_PX) * RADIUS_BUCKET_PX;
+        if (radius <= 0 || alpha <= 0f) {
+            return;
+        }
+
+        // The shadow is cast slightly downwards
+        int corner = 2 * radius;
+        int left = cardRect.left - radius;
+        int top = cardRect.top - radius + radius / 2;
+        int right = cardRect.right + radius;
+        int bottom = cardRect.bottom + radius + radius / 2;
+        if (right - left < 2 * corner || bottom - top < 2 * corner) {
+            return;
+        }
+
+        Bitmap shadow = getShadowBitmap(radius);
+        int size = shadow.getWidth();
+        mPaint.setAlpha((int) (Color.alpha(SHADOW_COLOR) * Math.min(1f, alpha)));
+
+        // Corners
+        drawSlice(canvas, shadow, 0, 0, corner, corner, left, top, left + corner, top + corner);
+        drawSlice(canvas, shadow, size - corner, 0, size, corner, right - corner, top, right, top + corner);
+        drawSlice(canvas, shadow, 0, size - corner, corner, size, left, bottom - corner, left + corner, bottom);
+        drawSlice(canvas, shadow, size - corner, size - corner, size, size,
+                right - corner, bottom - corner, right, bottom);
+        // Edges, the center is hidden under the card so it is never drawn
+        drawSlice(canvas, shadow, corner, 0, size - corner, corner,
+                left + corner, top, right - corner, top + corner);
+        drawSlice(canvas, shadow, corner, size - corner, size - corner, size,
+                left + corner, bottom - corner, right - corner, bottom);
+        drawSlice(canvas, shadow, 0, corner, corner, size - corner,
+                left, top + corner, left + corner, bottom - corner);
+        drawSlice(canvas, shadow, size - corner, corner, size, size - corner,
+                right - corner, top + corner, right, bottom - corner);
+    }
+
+    private void drawSlice(Canvas canvas, Bitmap shadow, int sl, int st, int sr, int sb,
+                           int dl, int dt, int dr, int db) {
+        mSrc.set(sl, st, sr, sb);
+        mDst.set(dl, dt, dr, db);
+        canvas.drawBitmap(shadow, mSrc, mDst, mPaint);
+    }
+
+    /**
+     * Returns the shadow bitmap for the specified radius, rendering it on first use. The blurred
+     * shape has 2 * radius wide corners around a single stretchable pixel.
+     */
+    private Bitmap getShadowBitmap(int radius) {
+        Bitmap shadow = mShadows.get(radius);
+        if (shadow == null) {
+            int size = 4 * radius + 1;
+            shadow = Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+            Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            paint.setMaskFilter(new BlurMaskFilter(radius, BlurMaskFilter.Blur.NORMAL));
+            new Canvas(shadow).drawRect(new RectF(radius, radius, size - radius, size - radius), paint);
+            mShadows.put(radius, shadow);
+        }
+        return shadow;
+    }
+}
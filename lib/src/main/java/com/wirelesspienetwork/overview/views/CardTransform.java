@@ -2,6 +2,7 @@ package com.wirelesspienetwork.overview.views;
 
 import android.animation.ValueAnimator;
 import android.graphics.Rect;
+import android.os.Build;
 import android.view.View;
 import android.view.ViewPropertyAnimator;
 import android.view.animation.Interpolator;
@@ -39,7 +40,30 @@ class CardTransform {
     }
 
     /**
-     * Convenience functions to compare against current property values
+     * Copies the specified transform into this one
+     */
+    void set(CardTransform o) {
+        startDelay = o.startDelay;
+        translationY = o.translationY;
+        translationZ = o.translationZ;
+        scale = o.scale;
+        alpha = o.alpha;
+        visible = o.visible;
+        rect.set(o.rect);
+        p = o.p;
+    }
+
+    /**
+     * Returns whether applying this transform over the specified one would change anything
+     */
+    boolean hasChangedFrom(CardTransform o) {
+        return hasTranslationYChangedFrom(o.translationY) || hasTranslationZChangedFrom(o.translationZ)
+                || hasScaleChangedFrom(o.scale) || hasAlphaChangedFrom(o.alpha)
+                || Float.compare(p, o.p) != 0;
+    }
+
+    /**
+     * Convenience functions to compare against the previously applied property values
      */
     private boolean hasAlphaChangedFrom(float v) {
         return (Float.compare(alpha, v) != 0);
@@ -53,25 +77,36 @@ class CardTransform {
         return (Float.compare(translationY, v) != 0);
     }
 
+    private boolean hasTranslationZChangedFrom(float v) {
+        return (Float.compare(translationZ, v) != 0);
+    }
+
     /**
-     * Applies this transform to a view.
+     * Applies this transform to a view, only touching the properties that differ from the
+     * transform last applied to it, or all of them if that is unknown.
      */
-    void applyToTaskView(View v, int duration, Interpolator interp, boolean allowLayers,
-                         boolean allowShadows, ValueAnimator.AnimatorUpdateListener updateCallback) {
+    void applyToTaskView(View v, CardTransform fromTransform, int duration, Interpolator interp,
+                         boolean allowLayers, boolean allowShadows,
+                         ValueAnimator.AnimatorUpdateListener updateCallback) {
         // Check to see if any properties have changed, and update the task view
+        boolean forceAll = (fromTransform == null);
         if (duration > 0) {
             ViewPropertyAnimator anim = v.animate();
             boolean requiresLayers = false;
 
             // Animate to the final state
-            if (hasTranslationYChangedFrom(v.getTranslationY())) {
+            if (forceAll || hasTranslationYChangedFrom(fromTransform.translationY)) {
                 anim.translationY(translationY);
             }
-            if (hasScaleChangedFrom(v.getScaleX())) {
+            if (allowShadows && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    && (forceAll || hasTranslationZChangedFrom(fromTransform.translationZ))) {
+                anim.translationZ(translationZ);
+            }
+            if (forceAll || hasScaleChangedFrom(fromTransform.scale)) {
                 anim.scaleX(scale).scaleY(scale);
                 requiresLayers = true;
             }
-            if (hasAlphaChangedFrom(v.getAlpha())) {
+            if (forceAll || hasAlphaChangedFrom(fromTransform.alpha)) {
                 // Use layers if we animate alpha
                 anim.alpha(alpha);
                 requiresLayers = true;
@@ -79,20 +114,27 @@ class CardTransform {
             if (requiresLayers && allowLayers) {
                 anim.withLayer();
             }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                anim.setUpdateListener(updateCallback);
+            }
             anim.setStartDelay(startDelay)
                     .setDuration(duration)
                     .setInterpolator(interp)
                     .start();
         } else {
             // Set the changed properties
-            if (hasTranslationYChangedFrom(v.getTranslationY())) {
+            if (forceAll || hasTranslationYChangedFrom(fromTransform.translationY)) {
                 v.setTranslationY(translationY);
             }
-            if (hasScaleChangedFrom(v.getScaleX())) {
+            if (allowShadows && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+                    && (forceAll || hasTranslationZChangedFrom(fromTransform.translationZ))) {
+                v.setTranslationZ(translationZ);
+            }
+            if (forceAll || hasScaleChangedFrom(fromTransform.scale)) {
                 v.setScaleX(scale);
                 v.setScaleY(scale);
             }
-            if (hasAlphaChangedFrom(v.getAlpha())) {
+            if (forceAll || hasAlphaChangedFrom(fromTransform.alpha)) {
                 v.setAlpha(alpha);
             }
         }
@@ -104,6 +146,9 @@ class CardTransform {
     static void reset(View v) {
         v.setTranslationX(0f);
         v.setTranslationY(0f);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            v.setTranslationZ(0f);
+        }
         v.setScaleX(1f);
         v.setScaleY(1f);
         v.setAlpha(1f);
@@ -2,6 +2,8 @@ package com.wirelesspienetwork.overview.views;
 
 import android.content.Context;
 import android.graphics.Rect;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.util.AttributeSet;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
@@ -21,8 +23,71 @@ public class OverView extends FrameLayout implements StackView.Callbacks {
     Configuration mConfig;
     StackViewAdapter mAdapter;
     RecentViewsCallbacks mCallbacks;
+    boolean mLightweightRendering;
+    boolean mDragToReorderEnabled = true;
+    StackViewScrubber mScrubber;
 
     Rect mStackBounds = new Rect();
+    // The state restored before a stack was set
+    SavedState mPendingState;
+
+    /**
+     * The stack scroll and the front most visible card, so that a recreated stack shows the same
+     * cards without scrolling to its initial state first
+     */
+    static class SavedState extends BaseSavedState {
+        float stackScroll;
+        // The front most visible card, its id (see StackViewAdapter.getItemId()), and how far,
+        // in cards, the stack was scrolled past it
+        int anchorPosition = -1;
+        long anchorId = StackViewAdapter.NO_ID;
+        float anchorOffset;
+        // The card rect the stack was laid out with
+        Rect layoutRect = new Rect();
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            stackScroll = in.readFloat();
+            anchorPosition = in.readInt();
+            anchorId = in.readLong();
+            anchorOffset = in.readFloat();
+            layoutRect.readFromParcel(in);
+        }
+
+        void set(SavedState other) {
+            stackScroll = other.stackScroll;
+            anchorPosition = other.anchorPosition;
+            anchorId = other.anchorId;
+            anchorOffset = other.anchorOffset;
+            layoutRect.set(other.layoutRect);
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeFloat(stackScroll);
+            out.writeInt(anchorPosition);
+            out.writeLong(anchorId);
+            out.writeFloat(anchorOffset);
+            layoutRect.writeToParcel(out, flags);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
 
     public OverView(Context context) {
         super(context);
@@ -65,10 +130,137 @@ public class OverView extends FrameLayout implements StackView.Callbacks {
         mStackView.setLayoutParams(params);
 
         mStackView.setCallbacks(this);
+        mStackView.setLightweightRenderingEnabled(mLightweightRendering);
+        mStackView.setDragToReorderEnabled(mDragToReorderEnabled);
         mStackView.animate().start();
 
         // 所以说 OverviewStackView 才是重点
         addView(mStackView);
+
+        if (mPendingState != null) {
+            mStackView.restoreState(mPendingState);
+            mPendingState = null;
+        }
+
+        if (mScrubber != null) {
+            // Keep the scrubber above the stack
+            mScrubber.setStackView(mStackView);
+            mScrubber.bringToFront();
+        }
+    }
+
+    /**
+     * Shows/hides a fast scrubber along the right edge of the stack. Dragging it scrolls straight
+     * through the whole stack, binding only placeholders (see
+     * {@link StackViewAdapter#onBindPlaceholder}) until it is released. Use this for very deep
+     * stacks.
+     */
+    public void setFastScrubberEnabled(boolean enabled) {
+        if (enabled && mScrubber == null) {
+            mScrubber = new StackViewScrubber(getContext(), mConfig);
+            mScrubber.setLayoutParams(new LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.MATCH_PARENT));
+            mScrubber.setStackView(mStackView);
+            addView(mScrubber);
+        } else if (!enabled && mScrubber != null) {
+            mScrubber.setStackView(null);
+            removeView(mScrubber);
+            mScrubber = null;
+        }
+    }
+
+    /**
+     * Enables/disables drawing the non-interactive cards directly on the stack's canvas, see
+     * {@link StackViewAdapter#getCardDrawable(int)}. Use this for very large stacks.
+     */
+    public void setLightweightRenderingEnabled(boolean enabled) {
+        mLightweightRendering = enabled;
+        if (mStackView != null) {
+            mStackView.setLightweightRenderingEnabled(enabled);
+        }
+    }
+
+    /**
+     * Enables/disables lifting a card with a long press to drag it to a new position, see
+     * {@link StackView#setDragToReorderEnabled(boolean)}. It is enabled by default.
+     */
+    public void setDragToReorderEnabled(boolean enabled) {
+        mDragToReorderEnabled = enabled;
+        if (mStackView != null) {
+            mStackView.setDragToReorderEnabled(enabled);
+        }
+    }
+
+    /**
+     * Sets the curve progress thresholds below which cards are reported to
+     * {@link StackViewAdapter#onDetailLevelChanged} with a lower detail level. Progress goes from
+     * 0 at the top of the stack to 1 at the bottom.
+     */
+    public void setDetailLevelThresholds(float reducedBelowProgress, float minimalBelowProgress) {
+        mConfig.taskViewDetailReducedProgress = reducedBelowProgress;
+        mConfig.taskViewDetailMinimalProgress = minimalBelowProgress;
+        if (mStackView != null) {
+            mStackView.requestSynchronizeStackViewsWithModel();
+        }
+    }
+
+    /**
+     * Sets the decay rate of stack flings, per second. Higher values stop the fling sooner.
+     */
+    public void setFlingFriction(float friction) {
+        mConfig.taskStackFlingFriction = friction;
+    }
+
+    /**
+     * Sets whether stack flings come to rest with a card exactly in the front slot.
+     */
+    public void setSnapToCardsEnabled(boolean enabled) {
+        mConfig.taskStackFlingSnapToCards = enabled;
+    }
+
+    /**
+     * Scrolls the stack so that the card at the specified position is the front most one, see
+     * {@link StackView#scrollToCard(int, boolean)}.
+     */
+    public void scrollToCard(int position, boolean animated) {
+        if (mStackView != null) {
+            mStackView.scrollToCard(position, animated);
+        }
+    }
+
+    /**
+     * Restores the last swiped away cards without rebinding them, see
+     * {@link StackView#undoDismiss()}. Returns whether any card was restored.
+     */
+    public boolean undoDismiss() {
+        return mStackView != null && mStackView.undoDismiss();
+    }
+
+    /**
+     * Sets how long, in ms, the last swiped away cards can be restored with {@link #undoDismiss()}.
+     * Their views are kept out of the pool for that long. 0 disables undo.
+     */
+    public void setDismissUndoWindow(int durationMs) {
+        mConfig.taskViewDismissUndoWindow = durationMs;
+    }
+
+    /**
+     * Returns the adapter position of the front most visible card at the specified point, in this
+     * view's coordinates, or -1 if there is none.
+     */
+    public int findCardAt(int x, int y) {
+        if (mStackView == null) {
+            return -1;
+        }
+        return mStackView.findCardAt(x - mStackView.getLeft(), y - mStackView.getTop());
+    }
+
+    /**
+     * Returns the counters describing the work done by the current stack, or null if no stack
+     * has been set yet.
+     */
+    public StackViewMetrics getMetrics() {
+        return mStackView != null ? mStackView.getMetrics() : null;
     }
 
     /**
@@ -87,6 +279,33 @@ public class OverView extends FrameLayout implements StackView.Callbacks {
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
 
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState state = new SavedState(super.onSaveInstanceState());
+        if (mStackView != null) {
+            mStackView.saveState(state);
+        } else if (mPendingState != null) {
+            state.set(mPendingState);
+        }
+        return state;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        if (mStackView != null) {
+            mStackView.restoreState(savedState);
+        } else {
+            // Restored once the stack is set
+            mPendingState = savedState;
+        }
+    }
+
     @Override
     public void onCardDismissed(int position) {
         if (mCallbacks != null) {
@@ -100,4 +319,11 @@ public class OverView extends FrameLayout implements StackView.Callbacks {
             mCallbacks.onAllCardsDismissed();
         }
     }
+
+    @Override
+    public void onStackScrollChanged(float p) {
+        if (mScrubber != null) {
+            mScrubber.invalidate();
+        }
+    }
 }
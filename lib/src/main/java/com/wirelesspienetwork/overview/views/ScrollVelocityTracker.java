@@ -0,0 +1,86 @@
+package com.wirelesspienetwork.overview.views;
+
+/**
+ * 滚动速度计算
+ * Tracks the velocity of the stack scroll from (time, progress) samples kept in a preallocated
+ * ring buffer, so that feeding it touch events never allocates. The velocity is the slope of the
+ * least-squares line through the recent samples.
+ */
+class ScrollVelocityTracker {
+
+    private static final int SAMPLE_COUNT = 20;
+    // Only samples this recent relative to the newest one are used for the estimate
+    private static final long HORIZON_MS = 100;
+    // If the pointer rests for longer than this, the previous samples describe another movement
+    private static final long ASSUME_STOPPED_MS = 40;
+
+    private final long[] mTimes = new long[SAMPLE_COUNT];
+    private final float[] mProgress = new float[SAMPLE_COUNT];
+    private int mNewest = -1;
+    private int mCount;
+
+    /**
+     * Removes all the samples
+     */
+    void clear() {
+        mNewest = -1;
+        mCount = 0;
+    }
+
+    /**
+     * Adds a sample, samples must be added in chronological order
+     */
+    void addSample(long timeMs, float progress) {
+        if (mCount > 0 && timeMs - mTimes[mNewest] > ASSUME_STOPPED_MS) {
+            clear();
+        }
+        mNewest = (mNewest + 1) % SAMPLE_COUNT;
+        mTimes[mNewest] = timeMs;
+        mProgress[mNewest] = progress;
+        mCount = Math.min(mCount + 1, SAMPLE_COUNT);
+    }
+
+    /**
+     * Returns the velocity in progress per second, or 0 if there are not enough samples
+     */
+    float getVelocity() {
+        if (mCount < 2) {
+            return 0f;
+        }
+
+        // Times are taken relative to the newest sample to keep the sums small
+        long newestTime = mTimes[mNewest];
+        int n = 0;
+        float sumT = 0;
+        float sumP = 0;
+        for (int i = 0, index = mNewest; i < mCount; i++) {
+            long age = newestTime - mTimes[index];
+            if (age > HORIZON_MS) {
+                break;
+            }
+            sumT -= age;
+            sumP += mProgress[index];
+            n++;
+            index = (index == 0) ? SAMPLE_COUNT - 1 : index - 1;
+        }
+        if (n < 2) {
+            return 0f;
+        }
+
+        float meanT = sumT / n;
+        float meanP = sumP / n;
+        float covariance = 0;
+        float variance = 0;
+        for (int i = 0, index = mNewest; i < n; i++) {
+            float dt = -(newestTime - mTimes[index]) - meanT;
+            covariance += dt * (mProgress[index] - meanP);
+            variance += dt * dt;
+            index = (index == 0) ? SAMPLE_COUNT - 1 : index - 1;
+        }
+        if (variance == 0f) {
+            return 0f;
+        }
+        // The slope is in progress per millisecond
+        return covariance / variance * 1000f;
+    }
+}
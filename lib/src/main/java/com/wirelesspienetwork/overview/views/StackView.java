@@ -2,11 +2,13 @@ package com.wirelesspienetwork.overview.views;
 
 import android.animation.ValueAnimator;
 import android.content.Context;
+import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -17,11 +19,15 @@ import com.wirelesspienetwork.overview.model.StackViewAdapter;
 import com.wirelesspienetwork.overview.model.ViewHolder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class StackView extends FrameLayout implements StackViewAdapter.Callbacks, StackViewScroller.Callbacks,
-        ObjectPool.ObjectPoolConsumer<ViewHolder, Integer> {
+        StackViewFrameScheduler.Callbacks, ObjectPool.ObjectPoolConsumer<ViewHolder, Integer> {
+
+    // Scrolls to cards further than this many cards away jump ahead to this distance first
+    private static final int SCROLL_TO_CARD_SKIP_AHEAD_COUNT = 8;
 
     /**
      * The TaskView callbacks
@@ -30,6 +36,8 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
         void onCardDismissed(int position);
 
         void onAllCardsDismissed();
+
+        void onStackScrollChanged(float p);
     }
 
     Configuration mConfig;
@@ -38,7 +46,9 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
     StackViewLayoutAlgorithm mLayoutAlgorithm;
     StackViewScroller mStackScroller;
     StackViewTouchHandler mTouchHandler;
+    StackViewFrameScheduler mFrameScheduler;
     Callbacks mCb;
+    StackViewMetrics mMetrics = new StackViewMetrics();
     ObjectPool<ViewHolder, Integer> mViewPool;
     ArrayList<CardTransform> mCurrentCardTransforms = new ArrayList<>();
     HashMap<StackViewCard, ViewHolder> mViewHolderMap = new HashMap<>();
@@ -49,14 +59,69 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
     int mStackViewsAnimationDuration;
     boolean mStackViewsDirty = true;
     boolean mStackViewsClipDirty = true;
+    // Whether the next frame pass has to redraw the content this view draws itself
+    boolean mStackContentDirty;
+    // Whether the next frame pass has to apply the adapter changes posted from other threads
+    boolean mAdapterUpdatesPending;
     boolean mAwaitingFirstLayout = true;
     boolean mStartEnterAnimationRequestedAfterLayout;
     boolean mStartEnterAnimationCompleted;
+    // Whether the cards are still animating to their transforms, findCardAt() then looks at the
+    // views instead of the hit index
+    boolean mStartEnterAnimationRunning;
+    long mCardsAnimationEndTime;
+    boolean mLightweightRendering;
+    // Whether a long press lifts a card so that it can be dragged to a new position
+    boolean mDragToReorderEnabled = true;
+    // Whether newly visible cards only get a placeholder bound, see StackViewAdapter.onBindPlaceholder()
+    boolean mBindPlaceholders;
+    boolean mScrollToCardInTransit;
+    int mScrollToCardAfterLayout = -1;
+    // The state to restore on the first layout, see restoreState()
+    OverView.SavedState mRestoredState;
+    int mTouchedPosition = -1;
+    // The card being dragged to a new position, it follows the finger instead of its transform
+    int mDraggedPosition = -1;
+    // The child index of the dragged card, resolved at the start of each draw
+    int mDraggedChildIndex = -1;
     ViewAnimation.CardEnterContext mStartEnterAnimationContext;
     int[] mTmpVisibleRange = new int[2];
+    int[] mTmpCandidateRange = new int[2];
+    int[] mLastCandidateRange = new int[]{-1, -1};
+    // The visible range last reported to the adapter
+    int[] mReportedVisibleRange = new int[]{-1, -1};
+    // The first and last (leading) positions of the group expanding on the next sync
+    int[] mExpandingGroup = new int[]{-1, -1};
     Rect mTmpRect = new Rect();
+    Rect mTmpHitRect = new Rect();
+    ArrayList<ViewHolder> mTmpHolders = new ArrayList<>();
+    SparseArray<ViewHolder> mTmpReusedHolders = new SparseArray<>();
+    CardHitIndex mHitIndex = new CardHitIndex();
+    // Whether the positions changed since the hit index was last rebuilt, by the next sync
+    boolean mHitIndexStale;
+    // Swiped away cards waiting to be removed from the adapter in one batch, they are detached
+    ArrayList<ViewHolder> mPendingDismissals = new ArrayList<>();
+    Runnable mFlushDismissalsRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPendingDismissals();
+        }
+    };
+    boolean mFlushingDismissals;
+    // The last removed batch of dismissed cards, kept bound and out of the pool for undoDismiss()
+    ArrayList<ViewHolder> mUndoHolders = new ArrayList<>();
+    ViewHolder mRestoringHolder;
+    Runnable mExpireUndoRunnable = new Runnable() {
+        @Override
+        public void run() {
+            expireUndoDismiss();
+        }
+    };
     CardTransform mTmpTransform = new CardTransform();
     LayoutInflater mInflater;
+    // Only used on releases without real elevation
+    CardShadowCache mShadowCache;
+    Rect mTmpShadowRect = new Rect();
 
     ValueAnimator.AnimatorUpdateListener mRequestUpdateClippingListener =
             new ValueAnimator.AnimatorUpdateListener() {
@@ -86,9 +151,13 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
         mViewPool = new ObjectPool<>(context, this);
         mInflater = LayoutInflater.from(context);
         mLayoutAlgorithm = new StackViewLayoutAlgorithm(mConfig);
-        mStackScroller = new StackViewScroller(context, mConfig, mLayoutAlgorithm);
+        mFrameScheduler = new StackViewFrameScheduler(this);
+        mStackScroller = new StackViewScroller(context, mConfig, mLayoutAlgorithm, mFrameScheduler);
         mStackScroller.setCallbacks(this);
         mTouchHandler = new StackViewTouchHandler(context, this, mConfig, mStackScroller);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mShadowCache = new CardShadowCache();
+        }
     }
 
     /**
@@ -107,7 +176,7 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
 
     void requestSynchronizeStackViewsWithModel(int duration) {
         if (!mStackViewsDirty) {
-            invalidate();
+            mFrameScheduler.scheduleFrame();
             mStackViewsDirty = true;
         }
         if (mAwaitingFirstLayout) {
@@ -123,9 +192,202 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
      */
     void requestUpdateStackViewsClip() {
         if (!mStackViewsClipDirty) {
-            invalidate();
+            mFrameScheduler.scheduleFrame();
             mStackViewsClipDirty = true;
         }
+        // The cards are moving under the content we draw ourselves
+        mStackContentDirty = true;
+    }
+
+    /**
+     * Enables/disables lightweight rendering. When enabled, only the front most card and the card
+     * under the user's finger are backed by a real view, every other visible card is drawn
+     * directly on this view's canvas from {@link StackViewAdapter#getCardDrawable(int)}.
+     */
+    public void setLightweightRenderingEnabled(boolean enabled) {
+        if (mLightweightRendering != enabled) {
+            mLightweightRendering = enabled;
+            mTouchedPosition = -1;
+            mStackContentDirty = true;
+            requestSynchronizeStackViewsWithModel();
+        }
+    }
+
+    /**
+     * Enables/disables lifting a card with a long press to drag it to a new position. Cards can
+     * only be dragged if the adapter supports moves, see {@link StackViewAdapter#supportsMoves()}.
+     */
+    public void setDragToReorderEnabled(boolean enabled) {
+        mDragToReorderEnabled = enabled;
+    }
+
+    /**
+     * Returns whether a long press on a card starts dragging it
+     */
+    boolean canDragToReorder() {
+        return mDragToReorderEnabled && mStackAdapter.supportsMoves();
+    }
+
+    /**
+     * Returns whether the card at the specified position needs to be backed by a real view.
+     */
+    private boolean isCardViewRequired(int position, int frontMostVisibleIndex) {
+        if (!mLightweightRendering || position == frontMostVisibleIndex || position == mTouchedPosition
+                || position == mDraggedPosition) {
+            return true;
+        }
+        return mStackAdapter.getCardDrawable(position) == null;
+    }
+
+    /**
+     * Makes sure the card at the specified position is backed by a real view while the user is
+     * touching it, so that it can be swiped. Pass -1 to release the current touched card.
+     */
+    void setTouchedPosition(int position) {
+        if (!mLightweightRendering || mTouchedPosition == position) {
+            return;
+        }
+        mTouchedPosition = position;
+        requestSynchronizeStackViewsWithModel();
+        // Attach the view right away, the swipe helper looks it up with this same event
+        synchronizeStackViewsWithModel();
+    }
+
+    /**
+     * Makes the card at the specified position follow the finger instead of its transform, and
+     * draws it above the others. Pass -1 to drop the current dragged card, it then animates into
+     * its slot.
+     */
+    void setDraggedPosition(int position) {
+        if (mDraggedPosition == position) {
+            return;
+        }
+        StackViewCard previousCard = getChildViewForIndex(mDraggedPosition);
+        if (previousCard != null) {
+            // Its properties were changed behind the transform's back
+            previousCard.mHasAppliedTransform = false;
+        }
+        mDraggedPosition = position;
+        setChildrenDrawingOrderEnabled(position >= 0);
+        requestSynchronizeStackViewsWithModel(200);
+    }
+
+    @Override
+    protected int getChildDrawingOrder(int childCount, int i) {
+        // Draw the dragged card last, its index is resolved once per draw in dispatchDraw()
+        int draggedIndex = mDraggedChildIndex;
+        if (draggedIndex < 0 || draggedIndex >= childCount) {
+            return i;
+        }
+        if (i == childCount - 1) {
+            return draggedIndex;
+        }
+        return (i >= draggedIndex) ? i + 1 : i;
+    }
+
+    /**
+     * Returns the adapter position of the front most visible card containing the specified point,
+     * in this view's coordinates, or -1 if there is none. This is a binary search over the cards'
+     * target transforms, while the cards are still animating to them the card views are hit
+     * tested where they are drawn instead.
+     */
+    public int findCardAt(int x, int y) {
+        if (!areCardsAnimating()) {
+            return mHitIndex.findCardAt(x, y);
+        }
+
+        // The children are sorted by position, the front most card is the last one. The dragged
+        // card is under the finger, what matters is the slot it is over.
+        int childCount = getChildCount();
+        for (int i = childCount - 1; i >= 0; i--) {
+            StackViewCard card = (StackViewCard) getChildAt(i);
+            ViewHolder holder = mViewHolderMap.get(card);
+            if (holder == null || holder.getPosition() == mDraggedPosition
+                    || card.getVisibility() != View.VISIBLE || mPendingDismissals.contains(holder)) {
+                continue;
+            }
+            if (isTransformedTouchPointInView(x, y, card)) {
+                return holder.getPosition();
+            }
+        }
+
+        // Only the cards drawn without a view and the dragged card's slot are where the index says
+        int position = mHitIndex.findCardAt(x, y);
+        if (position >= 0 && position != mDraggedPosition && getChildViewForIndex(position) != null) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * Returns whether the card views may still be animating towards their transforms
+     */
+    private boolean areCardsAnimating() {
+        return mStartEnterAnimationRunning || SystemClock.uptimeMillis() < mCardsAnimationEndTime;
+    }
+
+    /**
+     * Returns whether cards were added, removed or moved since the last sync, in which case
+     * findCardAt() still answers with the previous positions
+     */
+    boolean isHitIndexStale() {
+        return mHitIndexStale;
+    }
+
+    /**
+     * Scrolls the stack so that the card at the specified position rests in the front slot. An
+     * animated scroll over more than a few cards first jumps to a few cards away from the target,
+     * and only binds placeholders until the stack comes to rest, so its cost does not depend on
+     * the distance.
+     */
+    public void scrollToCard(int position, boolean animated) {
+        if (position < 0 || position >= mStackAdapter.getNumberOfItems()) {
+            throw new IllegalArgumentException("Position is out of bounds.");
+        }
+        if (mAwaitingFirstLayout) {
+            // The card progresses are only known after the first measure
+            mScrollToCardAfterLayout = position;
+            return;
+        }
+        float targetScroll = mLayoutAlgorithm.getStackScrollForFrontCard(position);
+        mStackScroller.stopScroller();
+        mStackScroller.stopBoundScrollAnimation();
+        if (!animated) {
+            mStackScroller.setStackScroll(mStackScroller.getBoundedStackScroll(targetScroll));
+            return;
+        }
+
+        // Skip ahead if the target is far from the current front most visible card
+        int frontMostVisibleIndex = mTmpVisibleRange[0];
+        if (frontMostVisibleIndex >= 0
+                && Math.abs(frontMostVisibleIndex - position) > SCROLL_TO_CARD_SKIP_AHEAD_COUNT) {
+            int skipAheadIndex = frontMostVisibleIndex < position
+                    ? position - SCROLL_TO_CARD_SKIP_AHEAD_COUNT
+                    : position + SCROLL_TO_CARD_SKIP_AHEAD_COUNT;
+            setBindPlaceholders(true);
+            mScrollToCardInTransit = true;
+            mStackScroller.setStackScroll(mStackScroller.getBoundedStackScroll(
+                    mLayoutAlgorithm.getStackScrollForFrontCard(skipAheadIndex)));
+        }
+        mStackScroller.animateScrollTo(targetScroll);
+    }
+
+    /**
+     * Enables/disables binding placeholders to newly visible cards. Disabling it fully binds every
+     * card that only has a placeholder on the next frame.
+     */
+    void setBindPlaceholders(boolean bindPlaceholders) {
+        if (mBindPlaceholders != bindPlaceholders) {
+            mBindPlaceholders = bindPlaceholders;
+            requestSynchronizeStackViewsWithModel();
+        }
+    }
+
+    /**
+     * Returns the counters describing the work done by this stack
+     */
+    public StackViewMetrics getMetrics() {
+        return mMetrics;
     }
 
     public StackViewCard getChildViewForIndex(int index) {
@@ -145,11 +407,6 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
                                           float stackScroll,
                                           int[] visibleRangeOut,
                                           boolean boundTranslationsToRect) {
-        // XXX: We should be intelligent about where to look for the visible stack range using the
-        //      current stack scroll.
-        // XXX: We should log extra cases like the ones below where we don't expect to hit very often
-        // XXX: Print out approximately how many indices we have to go through to find the first visible transform
-
         int transformCount = cardTransforms.size();
         int frontMostVisibleIndex = -1;
         int backMostVisibleIndex = -1;
@@ -160,14 +417,36 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             for (int i = transformCount; i < itemCount; i++) {
                 cardTransforms.add(new CardTransform());
             }
-        } else if (transformCount > itemCount) {
-            // If there are more transforms than cards, then just subset the transform list
-            cardTransforms.subList(0, itemCount);
         }
 
+        // Only look at the cards around the stack scroll, the others stay reset
+        int[] candidateRange = mTmpCandidateRange;
+        mLayoutAlgorithm.getCandidateVisibleRange(stackScroll, candidateRange);
+        for (int i = mLastCandidateRange[1]; i >= 0 && i <= mLastCandidateRange[0]
+                && i < cardTransforms.size(); i++) {
+            if (i < candidateRange[1] || i > candidateRange[0]) {
+                cardTransforms.get(i).reset();
+            }
+        }
+        mLastCandidateRange[0] = candidateRange[0];
+        mLastCandidateRange[1] = candidateRange[1];
+
         // Update the stack transforms
         CardTransform prevTransform = null;
-        for (int i = itemCount - 1; i >= 0; i--) {
+        for (int i = candidateRange[0]; i >= 0 && i >= candidateRange[1]; i--) {
+            if (mLayoutAlgorithm.isCardHidden(i)) {
+                // Jump over the cards folded into a collapsed group, they are never shown
+                int previousShownIndex = Math.max(mLayoutAlgorithm.getPreviousShownCard(i),
+                        candidateRange[1] - 1);
+                for (; i > previousShownIndex; i--) {
+                    if (cardTransforms.get(i).visible) {
+                        cardTransforms.get(i).reset();
+                    }
+                }
+                // The loop steps to previousShownIndex
+                i++;
+                continue;
+            }
 
             // 这里将空的 CardTransform 丢进去
             CardTransform transform = mLayoutAlgorithm.getStackTransform(i,
@@ -180,8 +459,8 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             } else {
                 if (backMostVisibleIndex != -1) {
                     // We've reached the end of the visible range, so going down the rest of the
-                    // stack, we can just reset the transforms accordingly
-                    while (i >= 0) {
+                    // candidates, we can just reset the transforms accordingly
+                    while (i >= candidateRange[1]) {
                         cardTransforms.get(i).reset();
                         i--;
                     }
@@ -211,45 +490,124 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             int[] visibleRange = mTmpVisibleRange;
             boolean isValidVisibleRange = updateStackTransforms(mCurrentCardTransforms, mStackAdapter.getNumberOfItems(),
                     stackScroll, visibleRange, false);
+            // Cards that were swiped away leave a gap until they are removed
+            for (int i = 0; isValidVisibleRange && i < mPendingDismissals.size(); i++) {
+                int position = mPendingDismissals.get(i).getPosition();
+                if (visibleRange[1] <= position && position <= visibleRange[0]) {
+                    mCurrentCardTransforms.get(position).visible = false;
+                }
+            }
+            if (isValidVisibleRange) {
+                mHitIndex.rebuild(mCurrentCardTransforms, visibleRange);
+            } else {
+                mHitIndex.clear();
+            }
+            mHitIndexStale = false;
+            if (visibleRange[0] != mReportedVisibleRange[0] || visibleRange[1] != mReportedVisibleRange[1]) {
+                mReportedVisibleRange[0] = visibleRange[0];
+                mReportedVisibleRange[1] = visibleRange[1];
+                mStackAdapter.onVisibleRangeChanged(visibleRange[0], visibleRange[1]);
+            }
 
-            ArrayList<Map.Entry<StackViewCard, ViewHolder>> entrySet = new ArrayList<>(mViewHolderMap.entrySet());
-
-            Map<Integer, ViewHolder> reusedMap = new HashMap<>();
+            // Snapshot the attached holders through the children to avoid allocating iterators,
+            // every attached holder's container is a child of this view
+            ArrayList<ViewHolder> attachedHolders = mTmpHolders;
+            SparseArray<ViewHolder> reusedMap = mTmpReusedHolders;
+            int childCount = getChildCount();
+            for (int i = 0; i < childCount; i++) {
+                attachedHolders.add(mViewHolderMap.get(getChildAt(i)));
+            }
 
-            for (Map.Entry<StackViewCard, ViewHolder> entry : entrySet) {
-                int position = entry.getValue().getPosition();
-                if (visibleRange[1] <= position && position <= visibleRange[0]) {
-                    ViewHolder vh = entry.getValue();
+            for (int i = 0; i < childCount; i++) {
+                ViewHolder vh = attachedHolders.get(i);
+                int position = vh.getPosition();
+                if ((visibleRange[1] <= position && position <= visibleRange[0]
+                        && mCurrentCardTransforms.get(position).visible
+                        && isCardViewRequired(position, visibleRange[0])) || position == mDraggedPosition) {
                     reusedMap.put(position, vh);
                 } else {
-                    mViewPool.returnObjectToPool(entry.getValue());
+                    mViewPool.returnObjectToPool(vh);
                 }
             }
+            attachedHolders.clear();
 
-            // Pick up all the newly visible children and update all the existing children
+            // Bind all the newly visible children
             for (int i = visibleRange[0]; isValidVisibleRange && i >= visibleRange[1]; i--) {
-                CardTransform transform = mCurrentCardTransforms.get(i);
-
-                ViewHolder vh = reusedMap.get(i);
-                if (vh == null) {
-                    vh = mViewPool.pickUpObjectFromPool(i, i);
+                if (!mCurrentCardTransforms.get(i).visible) {
+                    continue;
+                }
+                if (!isCardViewRequired(i, visibleRange[0])) {
+                    // This card is drawn on our canvas in dispatchDraw()
+                    continue;
+                }
+                ViewHolder reusedVh = reusedMap.get(i);
+                if (reusedVh != null) {
+                    if (reusedVh.isPlaceholder() && !mBindPlaceholders && mStackAdapter.isItemLoaded(i)) {
+                        // The stack came to rest, give the card its real content
+                        mStackAdapter.bindViewHolder(reusedVh, i);
+                    }
+                } else {
+                    ViewHolder vh = mViewPool.pickUpObjectFromPool(i, i);
 
                     if (mStackViewsAnimationDuration > 0) {
                         // For items in the list, put them in start animating them from the
                         // approriate ends of the list where they are expected to appear
-                        if (Float.compare(transform.p, 0f) <= 0) {
+                        int leaderPosition = mExpandingGroup[1];
+                        if (mExpandingGroup[0] <= i && i < leaderPosition
+                                && mCurrentCardTransforms.get(leaderPosition).visible) {
+                            // Members of an expanding group fan out from behind its leader
+                            mTmpTransform.set(mCurrentCardTransforms.get(leaderPosition));
+                        } else if (Float.compare(mCurrentCardTransforms.get(i).p, 0f) <= 0) {
                             mLayoutAlgorithm.getStackTransform(0f, 0f, mTmpTransform, null);
                         } else {
                             mLayoutAlgorithm.getStackTransform(1f, 0f, mTmpTransform, null);
                         }
                         vh.getContainer().updateViewPropertiesToCardTransform(mTmpTransform, 0);
                     }
+                    reusedMap.put(i, vh);
+                }
+            }
+
+            // Apply the transforms to all the children
+            boolean cardsChanged = false;
+            boolean cardsResized = false;
+            for (int i = visibleRange[0]; isValidVisibleRange && i >= visibleRange[1]; i--) {
+                ViewHolder vh = reusedMap.get(i);
+                if (vh == null || i == mDraggedPosition) {
+                    continue;
+                }
+                CardTransform transform = mCurrentCardTransforms.get(i);
+
+                // Cards bound to a position of a different height need a new layout
+                StackViewCard container = vh.getContainer();
+                if (!cardsResized && !isLayoutRequested() && container.getHeight() - container.getPaddingTop() - container.getPaddingBottom()
+                        != mLayoutAlgorithm.getCardHeight(i)) {
+                    cardsResized = true;
                 }
 
-                // Animate the card into place
-                vh.getContainer().updateViewPropertiesToCardTransform(mCurrentCardTransforms.get(i),
-                        mStackViewsAnimationDuration, mRequestUpdateClippingListener);
+                // Let the adapter trim the content of cards far in the back
+                mStackAdapter.updateDetailLevel(vh, getDetailLevel(transform));
+
+                // Animate the card into place, this is a no-op if it is already there
+                boolean updated = vh.getContainer().updateViewPropertiesToCardTransform(
+                        transform, mStackViewsAnimationDuration, mRequestUpdateClippingListener);
+                mMetrics.onTransformUpdate(!updated);
+                cardsChanged |= updated;
+            }
+            if (cardsChanged && mStackViewsAnimationDuration > 0) {
+                mCardsAnimationEndTime = Math.max(mCardsAnimationEndTime,
+                        SystemClock.uptimeMillis() + mStackViewsAnimationDuration);
+            }
+            if (cardsResized) {
+                requestLayout();
             }
+            if (cardsChanged || mLightweightRendering) {
+                // In lightweight mode most cards are drawn by us, and any sync may move them
+                mStackContentDirty = true;
+            }
+
+            reusedMap.clear();
+            mExpandingGroup[0] = mExpandingGroup[1] = -1;
 
             // Reset the request-synchronize params
             mStackViewsAnimationDuration = 0;
@@ -260,6 +618,96 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
         return false;
     }
 
+    /**
+     * Returns the detail level of a card given its transform
+     */
+    private int getDetailLevel(CardTransform transform) {
+        if (transform.p < mConfig.taskViewDetailMinimalProgress) {
+            return StackViewAdapter.DETAIL_LEVEL_MINIMAL;
+        } else if (transform.p < mConfig.taskViewDetailReducedProgress) {
+            return StackViewAdapter.DETAIL_LEVEL_REDUCED;
+        }
+        return StackViewAdapter.DETAIL_LEVEL_FULL;
+    }
+
+    /**
+     * In lightweight mode, draws the visible cards from back to front, painting the cards without
+     * a view straight from their drawable and interleaving the attached card views in between.
+     */
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        StackViewCard draggedCard = (mDraggedPosition >= 0) ? getChildViewForIndex(mDraggedPosition) : null;
+        mDraggedChildIndex = (draggedCard != null) ? indexOfChild(draggedCard) : -1;
+        if (!mLightweightRendering) {
+            super.dispatchDraw(canvas);
+            return;
+        }
+
+        // Children are kept sorted by position, see prepareObjectToLeavePool()
+        long drawingTime = getDrawingTime();
+        int childCount = getChildCount();
+        int childIndex = 0;
+        int[] visibleRange = mTmpVisibleRange;
+        // Like getChildDrawingOrder(), the dragged card is drawn last, above all the others
+        for (int i = visibleRange[1]; i >= 0 && i <= visibleRange[0]; i++) {
+            boolean drawnAsView = false;
+            while (childIndex < childCount) {
+                StackViewCard card = (StackViewCard) getChildAt(childIndex);
+                ViewHolder vh = mViewHolderMap.get(card);
+                int position = (vh != null) ? vh.getPosition() : -1;
+                if (position > i) {
+                    break;
+                }
+                if (card != draggedCard) {
+                    drawChild(canvas, card, drawingTime);
+                }
+                childIndex++;
+                if (position == i) {
+                    drawnAsView = true;
+                    break;
+                }
+            }
+            if (drawnAsView || i >= mCurrentCardTransforms.size()) {
+                continue;
+            }
+
+            CardTransform transform = mCurrentCardTransforms.get(i);
+            Drawable d = transform.visible ? mStackAdapter.getCardDrawable(i) : null;
+            if (d != null) {
+                if (mShadowCache != null) {
+                    mShadowCache.drawShadow(canvas, transform.rect, transform.translationZ, transform.alpha);
+                }
+                d.setBounds(transform.rect);
+                d.setAlpha((int) (transform.alpha * 255));
+                d.draw(canvas);
+            }
+        }
+
+        // Draw whatever is left, ie. views that are still animating out of the visible range
+        for (; childIndex < childCount; childIndex++) {
+            View child = getChildAt(childIndex);
+            if (child != draggedCard) {
+                drawChild(canvas, child, drawingTime);
+            }
+        }
+        if (draggedCard != null) {
+            drawChild(canvas, draggedCard, drawingTime);
+        }
+    }
+
+    /**
+     * Draws the pre-rendered shadow under each card on releases without real elevation.
+     */
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        if (mShadowCache != null && child.getVisibility() == VISIBLE) {
+            StackViewCard card = (StackViewCard) child;
+            card.getHitRect(mTmpShadowRect);
+            mShadowCache.drawShadow(canvas, mTmpShadowRect, card.getShadowDepth(), card.getAlpha());
+        }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
     /**
      * Updates the clip for each of the task views.
      */
@@ -283,8 +731,13 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
      * Updates the min and max virtual scroll bounds
      */
     void updateMinMaxScroll(boolean boundScrollToNewMinMax) {
-        // Compute the min and max scroll values
-        mLayoutAlgorithm.computeMinMaxScroll(mStackAdapter.getNumberOfItems());
+        // Compute the min and max scroll values, the card progresses are kept up to date by the
+        // adapter callbacks, only rebuild them if they got out of sync
+        if (mLayoutAlgorithm.getItemCount() != mStackAdapter.getNumberOfItems()) {
+            mLayoutAlgorithm.computeMinMaxScroll(mStackAdapter);
+        } else {
+            mLayoutAlgorithm.updateMinMaxScroll();
+        }
 
         // Debug logging
         if (boundScrollToNewMinMax) {
@@ -302,23 +755,161 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
         return mTouchHandler.onTouchEvent(ev);
     }
 
+    /**
+     * The frame pass: computes the transforms, binds and updates the cards, then clips them. Only
+     * the content drawn by this view itself (cards in lightweight mode and pre-L shadows) needs a
+     * redraw when cards move, the card views invalidate themselves.
+     */
     @Override
-    public void computeScroll() {
-        mStackScroller.computeScroll();
-        // Synchronize the views
+    public void onFrame(long frameTimeNanos) {
+        if (mAdapterUpdatesPending) {
+            // Apply the changes posted from other threads all at once, before laying out
+            mAdapterUpdatesPending = false;
+            mStackAdapter.applyPendingUpdates();
+        }
+        if (mAwaitingFirstLayout) {
+            // onMeasure() synchronizes the views for the first layout
+            return;
+        }
+        if (mScrollToCardInTransit && !mStackScroller.isScrollAnimating()) {
+            // Either landed or interrupted, bind the cards we stopped on
+            mScrollToCardInTransit = false;
+            setBindPlaceholders(false);
+        }
         synchronizeStackViewsWithModel();
-        clipTaskViews();
+        if (mStackViewsClipDirty) {
+            clipTaskViews();
+        }
+        if (mStackContentDirty) {
+            mStackContentDirty = false;
+            if (mLightweightRendering || mShadowCache != null) {
+                invalidate();
+            }
+        }
+    }
+
+    @Override
+    public boolean hasFrameWork() {
+        // Until the first layout the views are synchronized by onMeasure()
+        return mAdapterUpdatesPending
+                || (!mAwaitingFirstLayout && (mStackViewsDirty || mStackViewsClipDirty));
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (mStackViewsDirty || mStackViewsClipDirty || mAdapterUpdatesPending
+                || mFrameScheduler.hasPendingFrameCallbacks()) {
+            mFrameScheduler.scheduleFrame();
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        flushPendingDismissals();
+        expireUndoDismiss();
+        mFrameScheduler.cancelFrame();
     }
 
     /**
      * Computes the stack and task rect
      */
     public void computeRect(int windowWidth, int windowHeight, Rect taskStackBounds) {
-        // Compute the rect in the stack algorithm
+        // Compute the rect in the stack algorithm, it keeps the scroll bounds of the current items
         mLayoutAlgorithm.computeRect(windowWidth, windowHeight, taskStackBounds);
 
-        // Update the scroll bounds
-        updateMinMaxScroll(false);
+        // Update the scroll bounds if the card progresses are out of sync
+        if (mLayoutAlgorithm.getItemCount() != mStackAdapter.getNumberOfItems()) {
+            updateMinMaxScroll(false);
+        }
+    }
+
+    /**
+     * Saves the stack scroll, the front most visible card and its offset, and the card rect
+     */
+    void saveState(OverView.SavedState state) {
+        if (mAwaitingFirstLayout && mRestoredState != null) {
+            // Saved again before the restored state was even applied
+            state.set(mRestoredState);
+            return;
+        }
+        float stackScroll = mStackScroller.getStackScroll();
+        int anchorPosition = mTmpVisibleRange[0];
+        state.stackScroll = stackScroll;
+        state.layoutRect.set(mLayoutAlgorithm.mTaskRect);
+        if (mAwaitingFirstLayout || anchorPosition < 0 || anchorPosition >= mStackAdapter.getNumberOfItems()) {
+            state.anchorPosition = -1;
+            state.anchorId = StackViewAdapter.NO_ID;
+            state.anchorOffset = 0;
+            return;
+        }
+        state.anchorPosition = anchorPosition;
+        state.anchorId = mStackAdapter.isItemLoaded(anchorPosition)
+                ? mStackAdapter.getItemId(anchorPosition) : StackViewAdapter.NO_ID;
+        // In cards rather than progress, so that it still holds if the rects change
+        float betweenCardsP = mLayoutAlgorithm.getBetweenCardsP();
+        state.anchorOffset = (betweenCardsP > 0)
+                ? (stackScroll - mLayoutAlgorithm.getStackScrollForTask(anchorPosition)) / betweenCardsP : 0;
+    }
+
+    /**
+     * Restores the state saved by saveState(), on the first layout if it hasn't happened yet
+     */
+    void restoreState(OverView.SavedState state) {
+        if (mAwaitingFirstLayout) {
+            mRestoredState = state;
+            return;
+        }
+        mStackScroller.stopScroller();
+        mStackScroller.stopBoundScrollAnimation();
+        applyRestoredState(state);
+    }
+
+    /**
+     * Scrolls back to the saved front most visible card, the card rect must be computed
+     */
+    private void applyRestoredState(OverView.SavedState state) {
+        int itemCount = mStackAdapter.getNumberOfItems();
+        int anchorPosition = findItemPosition(state.anchorId, state.anchorPosition);
+        if (anchorPosition < 0 && !state.layoutRect.equals(mLayoutAlgorithm.mTaskRect)
+                && state.anchorPosition >= 0 && itemCount > 0) {
+            // The saved scroll only holds for the same rects, fall back to the saved position
+            anchorPosition = Math.min(state.anchorPosition, itemCount - 1);
+        }
+        float stackScroll = state.stackScroll;
+        if (anchorPosition >= 0) {
+            stackScroll = mLayoutAlgorithm.getStackScrollForTask(anchorPosition)
+                    + state.anchorOffset * mLayoutAlgorithm.getBetweenCardsP();
+        }
+        mStackScroller.setStackScroll(mStackScroller.getBoundedStackScroll(stackScroll));
+    }
+
+    /**
+     * Returns the position of the loaded item with this id, looking around the specified
+     * position first, or -1 if there is none
+     */
+    private int findItemPosition(long itemId, int nearPosition) {
+        int itemCount = mStackAdapter.getNumberOfItems();
+        if (itemId == StackViewAdapter.NO_ID || itemCount == 0) {
+            return -1;
+        }
+        nearPosition = Math.max(0, Math.min(nearPosition, itemCount - 1));
+        for (int distance = 0; distance < itemCount; distance++) {
+            int before = nearPosition - distance;
+            int after = nearPosition + distance;
+            if (before < 0 && after >= itemCount) {
+                break;
+            }
+            if (before >= 0 && mStackAdapter.isItemLoaded(before) && mStackAdapter.getItemId(before) == itemId) {
+                return before;
+            }
+            if (after < itemCount && distance > 0 && mStackAdapter.isItemLoaded(after)
+                    && mStackAdapter.getItemId(after) == itemId) {
+                return after;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -332,14 +923,23 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
 
         // 空间大部分的初始化都在这里
 
-        // Compute our stack/task rect
-        Rect taskStackBounds = new Rect(mOverviewStackBounds);
-        computeRect(width, height, taskStackBounds);
+        // Compute our stack/task rect, this is a lookup for a size seen before
+        computeRect(width, height, mOverviewStackBounds);
 
         // If this is the first layout, then scroll to the front of the stack and synchronize the
         // stack views immediately to load all the views
         if (mAwaitingFirstLayout) {
-            mStackScroller.setStackScrollToInitialState();
+            if (mRestoredState != null) {
+                // Start right where the stack was saved, the sync binds the cards visible there
+                applyRestoredState(mRestoredState);
+                mRestoredState = null;
+            } else if (mScrollToCardAfterLayout >= 0 && mScrollToCardAfterLayout < mStackAdapter.getNumberOfItems()) {
+                mStackScroller.setStackScroll(mStackScroller.getBoundedStackScroll(
+                        mLayoutAlgorithm.getStackScrollForFrontCard(mScrollToCardAfterLayout)));
+            } else {
+                mStackScroller.setStackScrollToInitialState();
+            }
+            mScrollToCardAfterLayout = -1;
             requestSynchronizeStackViewsWithModel();
             synchronizeStackViewsWithModel();
         }
@@ -356,13 +956,25 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             tv.measure(
                     MeasureSpec.makeMeasureSpec(mLayoutAlgorithm.mTaskRect.width() + mTmpRect.left
                             + mTmpRect.right, MeasureSpec.EXACTLY),
-                    MeasureSpec.makeMeasureSpec(mLayoutAlgorithm.mTaskRect.height() + mTmpRect.top
+                    MeasureSpec.makeMeasureSpec(getCardHeight(tv) + mTmpRect.top
                             + mTmpRect.bottom, MeasureSpec.EXACTLY));
         }
 
         setMeasuredDimension(width, height);
     }
 
+    /**
+     * Returns the height of this card's content for the position it is bound to
+     */
+    private int getCardHeight(StackViewCard tv) {
+        ViewHolder vh = mViewHolderMap.get(tv);
+        int position = (vh != null) ? vh.getPosition() : -1;
+        if (position < 0 || position >= mLayoutAlgorithm.getItemCount()) {
+            return mLayoutAlgorithm.mTaskRect.height();
+        }
+        return mLayoutAlgorithm.getCardHeight(position);
+    }
+
     /**
      * This is called with the size of the space not including the top or right insets, or the
      * search bar height in portrait (but including the search bar width in landscape, since we want
@@ -382,7 +994,7 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             tv.layout(mLayoutAlgorithm.mTaskRect.left - mTmpRect.left,
                     mLayoutAlgorithm.mTaskRect.top - mTmpRect.top,
                     mLayoutAlgorithm.mTaskRect.right + mTmpRect.right,
-                    mLayoutAlgorithm.mTaskRect.bottom + mTmpRect.bottom);
+                    mLayoutAlgorithm.mTaskRect.top + getCardHeight(tv) + mTmpRect.bottom);
         }
 
         if (mAwaitingFirstLayout) {
@@ -425,6 +1037,7 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
             // Find the launch target task
 
             int launchTargetIndex = childCount == 0 ? -1 : 0;
+            mStartEnterAnimationRunning = childCount > 0;
 
             for (int i = 0; i < childCount; ++i) {
                 StackViewCard card = (StackViewCard) getChildAt(i);
@@ -444,50 +1057,170 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
                 @Override
                 public void run() {
                     mStartEnterAnimationCompleted = true;
+                    mStartEnterAnimationRunning = false;
                 }
             });
         }
     }
 
     public boolean isTransformedTouchPointInView(float x, float y, View child) {
-        final Rect frame = new Rect();
-        child.getHitRect(frame);
-        return frame.contains((int) x, (int) y);
+        child.getHitRect(mTmpHitRect);
+        return mTmpHitRect.contains((int) x, (int) y);
     }
 
     public void onCardAdded(StackViewAdapter stack, int position) {
-        requestSynchronizeStackViewsWithModel();
+        mHitIndexStale = true;
+        ViewHolder restoringHolder = mRestoringHolder;
+        mRestoringHolder = null;
+        if (restoringHolder == null) {
+            // The positions of the cards that could be restored are no longer valid
+            expireUndoDismiss();
+        }
+
+        // Shift the cards after the new one, and keep the dismissals waiting to be removed
+        // pointing at their items
+        for (ViewHolder vh : mViewHolderMap.values()) {
+            if (vh.getPosition() >= position) {
+                vh.setPosition(vh.getPosition() + 1);
+            }
+        }
+        for (int i = 0; i < mPendingDismissals.size(); i++) {
+            ViewHolder vh = mPendingDismissals.get(i);
+            if (vh.getPosition() >= position) {
+                vh.setPosition(vh.getPosition() + 1);
+            }
+        }
+
+        if (restoringHolder != null) {
+            // Reattach the dismissed card as it was bound
+            StackViewCard container = restoringHolder.getContainer();
+            container.resetViewProperties();
+            restoringHolder.setPosition(position);
+            mViewHolderMap.put(container, restoringHolder);
+            attachViewToParent(container, getChildInsertIndex(position), container.getLayoutParams());
+        }
+
+        // Get the stack scroll of the front most visible card, which stays in place while the
+        // cards behind it make room for the new one
+        int anchorPosition = mTmpVisibleRange[0];
+        boolean anchored = !mAwaitingFirstLayout && anchorPosition >= 0 && position <= anchorPosition;
+        float prevAnchorTaskScroll = anchored ? mLayoutAlgorithm.getStackScrollForTask(anchorPosition) : 0;
+        // A card inserted behind the back most visible one stays hidden, and the visible cards
+        // keep their transforms, so there is nothing to animate
+        boolean outsideViewport = anchored && position < mTmpVisibleRange[1];
+        mTmpVisibleRange[0] = shiftInsertedPosition(mTmpVisibleRange[0], position);
+        mTmpVisibleRange[1] = shiftInsertedPosition(mTmpVisibleRange[1], position);
+        mTouchedPosition = shiftInsertedPosition(mTouchedPosition, position);
+        mDraggedPosition = shiftInsertedPosition(mDraggedPosition, position);
+
+        // The new card may also join the group of the card before it
+        mLayoutAlgorithm.onItemInserted(position, stack.getCardWeight(position));
+        updateCardWeight(position - 1);
+        updateMinMaxScroll(false);
+
+        // Offset the stack by as much as the anchor task would otherwise move forward
+        if (anchored) {
+            float anchorTaskScroll = mLayoutAlgorithm.getStackScrollForTask(anchorPosition + 1);
+            mStackScroller.setStackScroll(mStackScroller.getStackScroll() + (anchorTaskScroll
+                    - prevAnchorTaskScroll));
+            mStackScroller.boundScroll();
+        }
+
+        // The next sync only reindexes the cards if the new one is out of sight
+        requestSynchronizeStackViewsWithModel(outsideViewport ? 0 : 200);
+    }
+
+    /**
+     * Returns where the item at this position ends up after an item is inserted at
+     * insertedPosition
+     */
+    private static int shiftInsertedPosition(int position, int insertedPosition) {
+        return (position >= insertedPosition) ? position + 1 : position;
     }
 
     public void onCardRemoved(StackViewAdapter stack, int removedTask) {
-        // Remove the view associated with this task, we can't rely on updateTransforms
-        // to work here because the task is no longer in the list
-        StackViewCard tv = getChildViewForIndex(removedTask);
-        ViewHolder holder = mViewHolderMap.get(tv);
+        onCardsRemoved(stack, new int[]{removedTask});
+    }
 
-        // Notify the callback that we've removed the task and it can clean up after it
-        mCb.onCardDismissed(removedTask);
+    public void onCardsRemoved(StackViewAdapter stack, int[] removedTasks) {
+        removeCards(stack, removedTasks, true);
+    }
 
-        if (tv != null) {
-            holder.setPosition(-1);
-            mViewPool.returnObjectToPool(holder);
-        }
+    @Override
+    public void onCardsHidden(StackViewAdapter stack, int[] hiddenPositions) {
+        // The cards animate out the same way, but the items are not reported as dismissed
+        removeCards(stack, hiddenPositions, false);
+    }
 
-        for (ViewHolder vh : mViewHolderMap.values()) {
-            if (vh.getPosition() > removedTask) {
-                vh.setPosition(vh.getPosition() - 1);
-                // No need to rebind, it's just an index change.
-            }
+    /**
+     * Removes the cards at these sorted positions, and reports them to the callbacks as dismissed
+     * if they were
+     */
+    private void removeCards(StackViewAdapter stack, int[] removedTasks, boolean dismissed) {
+        mHitIndexStale = true;
+        // Cards can only be restored if the adapter can insert them back
+        boolean retainForUndo = dismissed && mFlushingDismissals && mConfig.taskViewDismissUndoWindow > 0
+                && stack.supportsInserts();
+        if (!mFlushingDismissals) {
+            // The positions of the cards that could be restored are no longer valid
+            expireUndoDismiss();
         }
 
-        // Get the stack scroll of the task to anchor to (since we are removing something, the front
-        // most task will be our anchor task)
+        // Get the stack scroll of the task to anchor to: the front most visible card that is kept,
+        // so that the remaining cards close the gaps around it while it stays in place
         int anchorPosition = -1;
         float prevAnchorTaskScroll = 0;
         boolean pullStackForward = stack.getNumberOfItems() > 0;
         if (pullStackForward) {
-            anchorPosition = stack.getNumberOfItems() - 1;
-            prevAnchorTaskScroll = mLayoutAlgorithm.getStackScrollForTask(anchorPosition);
+            int prevAnchorPosition = getKeptPosition(mTmpVisibleRange[0], removedTasks,
+                    stack.getNumberOfItems() + removedTasks.length);
+            prevAnchorTaskScroll = mLayoutAlgorithm.getStackScrollForTask(prevAnchorPosition);
+            // Binary search returns the insertion point of kept positions as -(point) - 1
+            anchorPosition = prevAnchorPosition + Arrays.binarySearch(removedTasks, prevAnchorPosition) + 1;
+        }
+
+        // Go from the back so that each reported position is valid at the time it is removed
+        for (int i = removedTasks.length - 1; i >= 0; i--) {
+            int removedTask = removedTasks[i];
+
+            // Remove the view associated with this task, we can't rely on updateTransforms
+            // to work here because the task is no longer in the list
+            ViewHolder holder = mViewHolderMap.get(getChildViewForIndex(removedTask));
+            if (holder == null) {
+                holder = removePendingDismissal(removedTask);
+            }
+
+            // Notify the callback that we've removed the task and it can clean up after it
+            if (dismissed) {
+                mCb.onCardDismissed(removedTask);
+            }
+            mLayoutAlgorithm.onItemRemoved(removedTask);
+
+            if (holder != null && retainForUndo && holder.getContainer().getParent() == null) {
+                // Keep the swiped away card bound, at its old position, for undoDismiss()
+                mUndoHolders.add(0, holder);
+            } else if (holder != null) {
+                holder.setPosition(-1);
+                mViewPool.returnObjectToPool(holder);
+            }
+
+            for (ViewHolder vh : mViewHolderMap.values()) {
+                if (vh.getPosition() > removedTask) {
+                    vh.setPosition(vh.getPosition() - 1);
+                    // No need to rebind, it's just an index change.
+                }
+            }
+            for (int j = 0; j < mPendingDismissals.size(); j++) {
+                ViewHolder vh = mPendingDismissals.get(j);
+                if (vh.getPosition() > removedTask) {
+                    vh.setPosition(vh.getPosition() - 1);
+                }
+            }
+        }
+
+        // The cards right before the removed ones may now lead or join a group
+        for (int i = 0; i < removedTasks.length; i++) {
+            updateCardWeight(removedTasks[i] - i - 1);
         }
 
         // Update the min/max scroll and animate other task views into their new positions
@@ -506,16 +1239,275 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
 
         // If there are no remaining tasks, then either unfilter the current stack, or just close
         // the activity if there are no filtered stacks
-        if (mStackAdapter.getNumberOfItems() == 0) {
+        if (dismissed && mStackAdapter.getNumberOfItems() == 0) {
             mCb.onAllCardsDismissed();
         }
     }
 
+    public void onCardMoved(StackViewAdapter stack, int fromPosition, int toPosition) {
+        mHitIndexStale = true;
+        // The positions of the cards that could be restored are no longer valid
+        expireUndoDismiss();
+
+        // Only the cards in between change position, none of them is rebound
+        StackViewCard movedCard = getChildViewForIndex(fromPosition);
+        for (ViewHolder vh : mViewHolderMap.values()) {
+            int position = getMovedPosition(vh.getPosition(), fromPosition, toPosition);
+            if (position != vh.getPosition()) {
+                vh.setPosition(position);
+            }
+        }
+        for (int i = 0; i < mPendingDismissals.size(); i++) {
+            ViewHolder vh = mPendingDismissals.get(i);
+            vh.setPosition(getMovedPosition(vh.getPosition(), fromPosition, toPosition));
+        }
+        mTouchedPosition = getMovedPosition(mTouchedPosition, fromPosition, toPosition);
+        mDraggedPosition = getMovedPosition(mDraggedPosition, fromPosition, toPosition);
+
+        // The heights moved along with the items
+        mLayoutAlgorithm.onItemMoved(fromPosition, toPosition);
+        // The cards whose next card changed may now lead or join a group
+        updateCardWeight(toPosition - 1);
+        updateCardWeight(toPosition);
+        updateCardWeight(fromPosition < toPosition ? fromPosition - 1 : fromPosition);
+        updateMinMaxScroll(false);
+
+        // Keep the children sorted by position
+        if (movedCard != null) {
+            detachViewFromParent(movedCard);
+            attachViewToParent(movedCard, getChildInsertIndex(toPosition), movedCard.getLayoutParams());
+        }
+
+        // Only the cards in between get a new transform, so only they animate
+        requestSynchronizeStackViewsWithModel(200);
+    }
+
+    public void onGroupChanged(StackViewAdapter stack, int firstPosition, int lastPosition, boolean expanded) {
+        // The leader's weight does not change, so only the members are updated
+        float prevLeaderScroll = mLayoutAlgorithm.getStackScrollForTask(lastPosition);
+        for (int i = firstPosition; i < lastPosition; i++) {
+            updateCardWeight(i);
+        }
+        updateMinMaxScroll(false);
+
+        // Keep the leader in place, the members fan out behind it or fold into it
+        float leaderScroll = mLayoutAlgorithm.getStackScrollForTask(lastPosition);
+        mStackScroller.setStackScroll(mStackScroller.getStackScroll() + (leaderScroll - prevLeaderScroll));
+        mStackScroller.boundScroll();
+
+        if (expanded) {
+            mExpandingGroup[0] = firstPosition;
+            mExpandingGroup[1] = lastPosition;
+        }
+        requestSynchronizeStackViewsWithModel(200);
+    }
+
+    public void onCardsChanged(StackViewAdapter stack, int firstPosition, int count) {
+        // Rebind the changed cards, placeholders wait for the stack to come to rest
+        for (ViewHolder vh : mViewHolderMap.values()) {
+            int position = vh.getPosition();
+            if (position >= firstPosition && position < firstPosition + count
+                    && (!vh.isPlaceholder() || !mBindPlaceholders)) {
+                stack.bindViewHolder(vh, position);
+            }
+        }
+
+        // The heights of the changed items may have changed too
+        for (int i = firstPosition; i < firstPosition + count; i++) {
+            updateCardWeight(i);
+        }
+        updateMinMaxScroll(false);
+        requestSynchronizeStackViewsWithModel();
+    }
+
+    public void onUpdatesPending(StackViewAdapter stack) {
+        mAdapterUpdatesPending = true;
+        mFrameScheduler.scheduleFrame();
+    }
+
+    @Override
+    public void onDataSetChanged(StackViewAdapter stack) {
+        mHitIndexStale = true;
+        // No card can be kept, restored or removed later, since all the items were replaced
+        expireUndoDismiss();
+        removeCallbacks(mFlushDismissalsRunnable);
+        for (int i = 0; i < mPendingDismissals.size(); i++) {
+            ViewHolder vh = mPendingDismissals.get(i);
+            vh.setPosition(-1);
+            mViewPool.returnObjectToPool(vh);
+        }
+        mPendingDismissals.clear();
+
+        // Return every card to the pool, the next sync binds the new items
+        ArrayList<ViewHolder> attachedHolders = mTmpHolders;
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            attachedHolders.add(mViewHolderMap.get(getChildAt(i)));
+        }
+        for (int i = 0; i < childCount; i++) {
+            mViewPool.returnObjectToPool(attachedHolders.get(i));
+        }
+        attachedHolders.clear();
+        mTouchedPosition = -1;
+        mDraggedPosition = -1;
+        setChildrenDrawingOrderEnabled(false);
+
+        // The weights of the new items are unrelated to the previous ones
+        mLayoutAlgorithm.computeMinMaxScroll(stack);
+        updateMinMaxScroll(true);
+        requestSynchronizeStackViewsWithModel();
+    }
+
+    /**
+     * Updates the layout weight of the card at this position from the adapter, it depends on the
+     * card's group and on the group of the card after it.
+     */
+    private void updateCardWeight(int position) {
+        if (position >= 0 && position < mLayoutAlgorithm.getItemCount()
+                && position < mStackAdapter.getNumberOfItems()) {
+            mLayoutAlgorithm.onItemChanged(position, mStackAdapter.getCardWeight(position));
+        }
+    }
+
+    /**
+     * Returns the closest position to this one, preferably behind it, that is not in the sorted
+     * removed positions. This is the front most position if the specified one is -1.
+     */
+    private static int getKeptPosition(int position, int[] removedPositions, int itemCount) {
+        if (position < 0 || position >= itemCount) {
+            position = itemCount - 1;
+        }
+        for (int i = position; i >= 0; i--) {
+            if (Arrays.binarySearch(removedPositions, i) < 0) {
+                return i;
+            }
+        }
+        for (int i = position + 1; i < itemCount; i++) {
+            if (Arrays.binarySearch(removedPositions, i) < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns where the item at this position ends up after moving the one at fromPosition to
+     * toPosition
+     */
+    private static int getMovedPosition(int position, int fromPosition, int toPosition) {
+        if (position < 0) {
+            return position;
+        }
+        if (position == fromPosition) {
+            return toPosition;
+        }
+        if (fromPosition < toPosition && fromPosition < position && position <= toPosition) {
+            return position - 1;
+        }
+        if (toPosition < fromPosition && toPosition <= position && position < fromPosition) {
+            return position + 1;
+        }
+        return position;
+    }
+
+    /**
+     * Queues the removal of a swiped away card. Dismissals finishing within the batch window of
+     * each other are removed from the adapter together, with a single relayout. Until then the
+     * card is detached, and skipped by the layout and the hit testing.
+     */
     public void onCardDismissed(StackViewCard tv) {
+        ViewHolder vh = mViewHolderMap.remove(tv);
+        if (vh == null) {
+            return;
+        }
+        detachViewFromParent(tv);
+        mPendingDismissals.add(vh);
+        requestSynchronizeStackViewsWithModel();
 
-        ViewHolder vh = mViewHolderMap.get(tv);
-        int taskIndex = vh.getPosition();
-        mStackAdapter.notifyDataSetRemoved(taskIndex);
+        // Restart the window
+        removeCallbacks(mFlushDismissalsRunnable);
+        postDelayed(mFlushDismissalsRunnable, mConfig.taskViewDismissBatchWindow);
+    }
+
+    /**
+     * Removes all the queued dismissals from the adapter at once
+     */
+    void flushPendingDismissals() {
+        removeCallbacks(mFlushDismissalsRunnable);
+        int count = mPendingDismissals.size();
+        if (count == 0) {
+            return;
+        }
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = mPendingDismissals.get(i).getPosition();
+        }
+
+        // Only the last batch can be restored
+        expireUndoDismiss();
+        mFlushingDismissals = true;
+        try {
+            mStackAdapter.notifyDataSetRemoved(positions);
+        } finally {
+            mFlushingDismissals = false;
+        }
+        if (!mUndoHolders.isEmpty()) {
+            postDelayed(mExpireUndoRunnable, mConfig.taskViewDismissUndoWindow);
+        }
+    }
+
+    /**
+     * Restores the last batch of swiped away cards at their old positions, reusing their views as
+     * they were bound, without calling {@link StackViewAdapter#onBindViewHolder}. This is only
+     * possible within the undo window after they were removed, as long as the adapter has not
+     * changed since, and if it supports inserts, see {@link StackViewAdapter#supportsInserts()}.
+     * Returns whether any card was restored.
+     */
+    public boolean undoDismiss() {
+        // Cards that are still waiting to be removed are restored along with the others
+        flushPendingDismissals();
+        if (mUndoHolders.isEmpty()) {
+            return false;
+        }
+        if (!mStackAdapter.supportsInserts()) {
+            // Only kept if the adapter stopped supporting inserts since
+            expireUndoDismiss();
+            return false;
+        }
+        removeCallbacks(mExpireUndoRunnable);
+
+        // Positions are ascending and refer to the stack before the removal, so restoring them in
+        // order puts every card back where it was
+        int count = mUndoHolders.size();
+        for (int i = 0; i < count; i++) {
+            ViewHolder vh = mUndoHolders.get(i);
+            mRestoringHolder = vh;
+            mStackAdapter.notifyDataSetInserted(vh.model, vh.getPosition());
+        }
+        mUndoHolders.clear();
+        return true;
+    }
+
+    /**
+     * Gives up on restoring the last dismissed cards, and returns their views to the pool
+     */
+    void expireUndoDismiss() {
+        removeCallbacks(mExpireUndoRunnable);
+        for (int i = 0; i < mUndoHolders.size(); i++) {
+            ViewHolder vh = mUndoHolders.get(i);
+            vh.setPosition(-1);
+            mViewPool.returnObjectToPool(vh);
+        }
+        mUndoHolders.clear();
+    }
+
+    private ViewHolder removePendingDismissal(int position) {
+        for (int i = 0; i < mPendingDismissals.size(); i++) {
+            if (mPendingDismissals.get(i).getPosition() == position) {
+                return mPendingDismissals.remove(i);
+            }
+        }
+        return null;
     }
 
     @Override
@@ -527,8 +1519,10 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
     public void prepareObjectToEnterPool(ViewHolder vh) {
 
         mViewHolderMap.remove(vh.getContainer());
-        // Detach the view from the hierarchy
-        detachViewFromParent(vh.getContainer());
+        // Detach the view from the hierarchy, unless it was already, like a dismissed card
+        if (vh.getContainer().getParent() == this) {
+            detachViewFromParent(vh.getContainer());
+        }
 
         // Reset the view properties
         vh.getContainer().resetViewProperties();
@@ -540,23 +1534,15 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
 
         mViewHolderMap.put(vh.getContainer(), vh);
         vh.setPosition(position);
-        mStackAdapter.bindViewHolder(vh, position);
+        if (mBindPlaceholders) {
+            mStackAdapter.bindPlaceholder(vh, position);
+        } else {
+            mStackAdapter.bindViewHolder(vh, position);
+        }
         StackViewCard container = vh.getContainer();
 
         // Find the index where this task should be placed in the stack
-        int insertIndex = -1;
-        int taskIndex = position;
-        if (taskIndex != -1) {
-            int childCount = getChildCount();
-            for (int i = 0; i < childCount; i++) {
-                StackViewCard insertTV = (StackViewCard) getChildAt(i);
-                ViewHolder holder = mViewHolderMap.get(insertTV);
-                if (taskIndex < holder.getPosition()) {
-                    insertIndex = i;
-                    break;
-                }
-            }
-        }
+        int insertIndex = getChildInsertIndex(position);
 
         // Add/attach the view to the hierarchy
         if (isNewView) {
@@ -569,6 +1555,21 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
         }
     }
 
+    /**
+     * Returns the child index at which the card at this position goes, children are kept sorted
+     * by position
+     */
+    private int getChildInsertIndex(int position) {
+        int childCount = getChildCount();
+        for (int i = 0; i < childCount; i++) {
+            ViewHolder holder = mViewHolderMap.get(getChildAt(i));
+            if (holder != null && position < holder.getPosition()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public boolean hasPreferredData(ViewHolder vh, Integer preferredData) {
         return (vh.getPosition() == preferredData);
@@ -580,15 +1581,8 @@ public class StackView extends FrameLayout implements StackViewAdapter.Callbacks
     @Override
     public void onScrollChanged(float p) {
         requestSynchronizeStackViewsWithModel();
-        if (Build.VERSION.SDK_INT >= 16) {
-            postInvalidateOnAnimation();
-        } else {
-            new Handler(Looper.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    invalidate();
-                }
-            });
+        if (mCb != null) {
+            mCb.onStackScrollChanged(p);
         }
     }
 }
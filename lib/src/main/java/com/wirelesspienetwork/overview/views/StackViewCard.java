@@ -5,25 +5,34 @@ import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.content.Context;
 import android.graphics.*;
+import android.os.Build;
 import android.util.AttributeSet;
-import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.FrameLayout;
-import android.widget.LinearLayout;
+import android.view.ViewOutlineProvider;
 
 import com.wirelesspienetwork.overview.misc.Configuration;
 
 /**
  * 多任务管理中每个任务卡片
+ * A flat container with a single content slot, the content is always measured to the exact size
+ * of the card.
  */
-public class StackViewCard extends FrameLayout {
+public class StackViewCard extends ViewGroup {
 
     float mTaskProgress;
     Configuration mConfig;
     ObjectAnimator mTaskProgressAnimator;
-    LinearLayout mContentContainer;
     View mContent;
+    // The content bounds from the last layout, used for hit testing
+    Rect mContentRect = new Rect();
+    // The depth of the shadow drawn by the parent on releases without real elevation
+    float mShadowDepth;
+    // The last transform applied to this card, valid only if mHasAppliedTransform is set
+    CardTransform mAppliedTransform = new CardTransform();
+    boolean mHasAppliedTransform;
+    // Whether the last transform was applied with an animation that may still be running
+    boolean mAnimatingTransform;
 
     // Optimizations
     ValueAnimator.AnimatorUpdateListener mUpdateDimListener = new ValueAnimator.AnimatorUpdateListener() {
@@ -51,14 +60,19 @@ public class StackViewCard extends FrameLayout {
     private void init(Context context) {
         setBackgroundColor(Color.TRANSPARENT);
 
-        mContentContainer = new LinearLayout(context);
-        mContentContainer.setOrientation(LinearLayout.VERTICAL);
-        LayoutParams params = new LayoutParams(
-                ViewGroup.LayoutParams.WRAP_CONTENT,
-                ViewGroup.LayoutParams.WRAP_CONTENT);
-        params.gravity = Gravity.CENTER_HORIZONTAL | Gravity.TOP;
-        mContentContainer.setLayoutParams(params);
-        addView(mContentContainer);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // The background is transparent, so cast the elevation shadow from the content bounds
+            setOutlineProvider(new ViewOutlineProvider() {
+                @Override
+                public void getOutline(View view, Outline outline) {
+                    if (mContent != null) {
+                        outline.setRect(mContentRect);
+                    } else {
+                        outline.setRect(0, 0, getWidth(), getHeight());
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -66,13 +80,14 @@ public class StackViewCard extends FrameLayout {
      */
     @Override
     public void getHitRect(Rect outRect) {
-        Rect contentRect = new Rect();
-        mContent.getHitRect(contentRect);
         super.getHitRect(outRect);
-        outRect.left += contentRect.left;
-        outRect.top += contentRect.top;
-        outRect.right = outRect.left + contentRect.width();
-        outRect.bottom = outRect.top + contentRect.height();
+        if (mContent == null) {
+            return;
+        }
+        outRect.left += mContentRect.left;
+        outRect.top += mContentRect.top;
+        outRect.right = outRect.left + mContentRect.width();
+        outRect.bottom = outRect.top + mContentRect.height();
     }
 
     public void setConfig(Configuration config) {
@@ -80,43 +95,96 @@ public class StackViewCard extends FrameLayout {
     }
 
     public void setContent(View content) {
+        if (mContent != null) {
+            removeView(mContent);
+        }
         mContent = content;
-        mContentContainer.removeAllViews();
+        mContentRect.setEmpty();
         if (mContent != null) {
-            mContentContainer.addView(mContent);
+            addView(mContent);
         }
         setTaskProgress(getTaskProgress());
     }
 
+    /**
+     * The card is always measured exactly by the stack, so the content is measured once, to the
+     * exact size of the card minus its padding.
+     */
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
-        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
         int width = MeasureSpec.getSize(widthMeasureSpec);
         int height = MeasureSpec.getSize(heightMeasureSpec);
 
-        int widthWithoutPadding = width - getPaddingLeft() - getPaddingRight();
-        int heightWithoutPadding = height - getPaddingTop() - getPaddingBottom();
-
-        // Measure the content
-        mContentContainer.measure(
-                MeasureSpec.makeMeasureSpec(widthWithoutPadding, MeasureSpec.EXACTLY),
-                MeasureSpec.makeMeasureSpec(heightWithoutPadding, MeasureSpec.EXACTLY));
+        if (mContent != null && mContent.getVisibility() != GONE) {
+            int widthWithoutPadding = Math.max(0, width - getPaddingLeft() - getPaddingRight());
+            int heightWithoutPadding = Math.max(0, height - getPaddingTop() - getPaddingBottom());
+            mContent.measure(
+                    MeasureSpec.makeMeasureSpec(widthWithoutPadding, MeasureSpec.EXACTLY),
+                    MeasureSpec.makeMeasureSpec(heightWithoutPadding, MeasureSpec.EXACTLY));
+        }
 
         setMeasuredDimension(width, height);
     }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        if (mContent == null || mContent.getVisibility() == GONE) {
+            mContentRect.setEmpty();
+            return;
+        }
+        int contentLeft = getPaddingLeft();
+        int contentTop = getPaddingTop();
+        mContentRect.set(contentLeft, contentTop, contentLeft + mContent.getMeasuredWidth(),
+                contentTop + mContent.getMeasuredHeight());
+        mContent.layout(mContentRect.left, mContentRect.top, mContentRect.right, mContentRect.bottom);
+    }
+
+    @Override
+    public boolean shouldDelayChildPressedState() {
+        return false;
+    }
+
     /**
      * Synchronizes this view's properties with the task's transform
      */
-    void updateViewPropertiesToCardTransform(CardTransform toTransform, int duration) {
-        updateViewPropertiesToCardTransform(toTransform, duration, null);
+    boolean updateViewPropertiesToCardTransform(CardTransform toTransform, int duration) {
+        return updateViewPropertiesToCardTransform(toTransform, duration, null);
     }
 
-    void updateViewPropertiesToCardTransform(CardTransform toTransform, int duration,
-                                             ValueAnimator.AnimatorUpdateListener updateCallback) {
+    /**
+     * Returns whether anything was written to this view, ie. false when the card is already at or
+     * animating towards the specified transform.
+     */
+    boolean updateViewPropertiesToCardTransform(CardTransform toTransform, int duration,
+                                                ValueAnimator.AnimatorUpdateListener updateCallback) {
+        if (mHasAppliedTransform && !toTransform.hasChangedFrom(mAppliedTransform)) {
+            return false;
+        }
+
+        // Setting the properties directly doesn't stop a running animation, which would then
+        // overwrite them and leave the card short of the applied transform. Stop it, and set all
+        // the properties since the unchanged ones may be half way there.
+        boolean applyAll = !mHasAppliedTransform;
+        if (duration <= 0 && mAnimatingTransform) {
+            animate().cancel();
+            if (mTaskProgressAnimator != null) {
+                mTaskProgressAnimator.removeAllListeners();
+                mTaskProgressAnimator.cancel();
+            }
+            applyAll = true;
+        }
+        mAnimatingTransform = duration > 0;
+
         // Apply the transform
-        toTransform.applyToTaskView(this, duration, mConfig.fastOutSlowInInterpolator, false,
-                true, updateCallback);
+        toTransform.applyToTaskView(this, applyAll ? null : mAppliedTransform, duration,
+                mConfig.fastOutSlowInInterpolator, false, true, updateCallback);
+        mShadowDepth = toTransform.translationZ;
+        boolean progressChanged = applyAll || Float.compare(mAppliedTransform.p, toTransform.p) != 0;
+        mAppliedTransform.set(toTransform);
+        mHasAppliedTransform = true;
+        if (!progressChanged) {
+            return true;
+        }
 
         // Update the task progress
         if (mTaskProgressAnimator != null) {
@@ -131,13 +199,26 @@ public class StackViewCard extends FrameLayout {
             mTaskProgressAnimator.addUpdateListener(mUpdateDimListener);
             mTaskProgressAnimator.start();
         }
+        return true;
     }
 
     /**
      * Resets this view's properties
      */
     void resetViewProperties() {
+        animate().cancel();
         CardTransform.reset(this);
+        mShadowDepth = 0;
+        mHasAppliedTransform = false;
+        mAnimatingTransform = false;
+    }
+
+    /**
+     * Returns the depth of the shadow that the parent should draw under this card on releases
+     * without real elevation.
+     */
+    float getShadowDepth() {
+        return mShadowDepth;
     }
 
     /**
@@ -153,6 +234,9 @@ public class StackViewCard extends FrameLayout {
      */
     void startEnterRecentAnimation(final ViewAnimation.CardEnterContext ctx) {
         final CardTransform transform = ctx.currentTaskTransform;
+        // This animation writes the properties directly, so forget the last applied transform
+        mHasAppliedTransform = false;
+        mAnimatingTransform = true;
 
         // Animate the tasks up
         int frontIndex = (ctx.currentStackViewCount - ctx.currentStackViewIndex - 1);
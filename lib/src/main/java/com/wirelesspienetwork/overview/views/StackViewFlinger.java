@@ -0,0 +1,83 @@
+package com.wirelesspienetwork.overview.views;
+
+import android.view.Choreographer;
+
+/**
+ * StackView 惯性滑动
+ * Decays the stack scroll towards a final position known up front, entirely in curve progress
+ * space. The motion is an exponential decay, p(t) = p1 - (p1 - p0) * e^(-friction * t), so its
+ * initial velocity is (p1 - p0) * friction. It is stepped from the stack's frame pass.
+ */
+class StackViewFlinger implements Choreographer.FrameCallback {
+
+    interface Callbacks {
+        void onFlingStep(float p);
+    }
+
+    // The fling settles on its final position once it gets this close to it
+    private static final float SETTLE_DISTANCE = 0.0005f;
+
+    private Callbacks mCb;
+    private StackViewFrameScheduler mScheduler;
+    private boolean mRunning;
+    private long mStartTimeNanos;
+    private float mStartP;
+    private float mFinalP;
+    private float mFriction;
+
+    StackViewFlinger(Callbacks cb, StackViewFrameScheduler scheduler) {
+        mCb = cb;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Returns the distance, in progress, that a fling with the specified velocity (in progress
+     * per second) travels before coming to rest.
+     */
+    static float getDecayDistance(float velocity, float friction) {
+        return velocity / friction;
+    }
+
+    /**
+     * Starts decaying from startP to finalP. The friction is the decay rate, per second.
+     */
+    void start(float startP, float finalP, float friction) {
+        stop();
+        mStartP = startP;
+        mFinalP = finalP;
+        mFriction = friction;
+        mStartTimeNanos = System.nanoTime();
+        mRunning = true;
+        mScheduler.postFrameCallback(this);
+    }
+
+    /**
+     * Stops the fling where it currently is
+     */
+    void stop() {
+        if (mRunning) {
+            mScheduler.removeFrameCallback(this);
+            mRunning = false;
+        }
+    }
+
+    boolean isRunning() {
+        return mRunning;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!mRunning) {
+            return;
+        }
+        float t = Math.max(0, frameTimeNanos - mStartTimeNanos) / 1000000000f;
+        float remaining = (mFinalP - mStartP) * (float) Math.exp(-mFriction * t);
+        if (Math.abs(remaining) < SETTLE_DISTANCE) {
+            mRunning = false;
+            mCb.onFlingStep(mFinalP);
+            return;
+        }
+        mCb.onFlingStep(mFinalP - remaining);
+        mScheduler.postFrameCallback(this);
+    }
+}
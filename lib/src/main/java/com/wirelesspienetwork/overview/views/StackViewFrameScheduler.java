@@ -0,0 +1,101 @@
+package com.wirelesspienetwork.overview.views;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * StackView 帧调度
+ * Coalesces every scroll, adapter and animation request made between two frames into a single
+ * Choreographer callback. Frame callbacks posted here, like the fling and the touch resampling,
+ * are run first in that callback, so the scroll they produce is synchronized in the same frame.
+ * Like Choreographer's own, posted callbacks only run once and have to be posted again.
+ */
+class StackViewFrameScheduler implements Choreographer.FrameCallback {
+
+    interface Callbacks {
+        /** Runs the stack's frame pass, after the posted frame callbacks */
+        void onFrame(long frameTimeNanos);
+        /** Returns whether there is work left for another frame pass */
+        boolean hasFrameWork();
+    }
+
+    private Callbacks mCb;
+    private boolean mScheduled;
+    // Requests made during a frame pass are handled by it, the next one is only posted at its end
+    private boolean mInFrame;
+    private boolean mCancelledInFrame;
+    private ArrayList<Choreographer.FrameCallback> mPending = new ArrayList<>();
+    private ArrayList<Choreographer.FrameCallback> mRunning = new ArrayList<>();
+
+    StackViewFrameScheduler(Callbacks cb) {
+        mCb = cb;
+    }
+
+    /**
+     * Makes sure there is a frame pass on the next frame
+     */
+    void scheduleFrame() {
+        if (!mScheduled && !mInFrame) {
+            mScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Runs the specified callback on the next frame pass, before the stack is synchronized
+     */
+    void postFrameCallback(Choreographer.FrameCallback callback) {
+        if (!mPending.contains(callback)) {
+            mPending.add(callback);
+        }
+        scheduleFrame();
+    }
+
+    void removeFrameCallback(Choreographer.FrameCallback callback) {
+        mPending.remove(callback);
+    }
+
+    /**
+     * Cancels the next frame pass, the posted callbacks are kept for when it is scheduled again
+     */
+    void cancelFrame() {
+        mCancelledInFrame = mInFrame;
+        if (mScheduled) {
+            mScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * Returns whether there are callbacks waiting for the next frame pass
+     */
+    boolean hasPendingFrameCallbacks() {
+        return !mPending.isEmpty();
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        mInFrame = true;
+        mCancelledInFrame = false;
+
+        // Swap the lists so that callbacks posting themselves again land in the next frame
+        ArrayList<Choreographer.FrameCallback> running = mPending;
+        mPending = mRunning;
+        mRunning = running;
+        int count = running.size();
+        for (int i = 0; i < count; i++) {
+            running.get(i).doFrame(frameTimeNanos);
+        }
+        running.clear();
+
+        mCb.onFrame(frameTimeNanos);
+        mInFrame = false;
+
+        // Only post the next frame pass for the callbacks posted again or the work left over
+        if (!mCancelledInFrame && (!mPending.isEmpty() || mCb.hasFrameWork())) {
+            scheduleFrame();
+        }
+    }
+}
@@ -3,9 +3,11 @@ package com.wirelesspienetwork.overview.views;
 import android.graphics.Rect;
 
 import com.wirelesspienetwork.overview.misc.Configuration;
+import com.wirelesspienetwork.overview.misc.ProgressTree;
 import com.wirelesspienetwork.overview.misc.Utilities;
+import com.wirelesspienetwork.overview.model.StackViewAdapter;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 
 class StackViewLayoutAlgorithm {
 
@@ -26,8 +28,56 @@ class StackViewLayoutAlgorithm {
     float mInitialScrollP;
     private int mBetweenAffiliationOffset;
 
-    // 存放每个CardView的比率
-    private HashMap<Integer, Float> mTaskProgressMap = new HashMap<>();
+    // The progress of the back most card
+    private static final float BACK_MOST_CARD_P = 0.2f;
+
+    // 每张卡片的高度权重，卡片的进度是它之前所有权重的和乘以 mBetweenCardsP
+    private ProgressTree mProgressTree = new ProgressTree();
+    // Curve constants, they only change with the rects. mBetweenCardsP is the progress between
+    // a card of weight 1 and the next one
+    private float mBetweenCardsP;
+    private float mPAtBottomOfStackRect;
+    private float mPTaskHeightOffset;
+    private float mPNavBarOffset;
+    private float[] mTmpWeights = new float[0];
+
+    /**
+     * The layout derived from a window size and stack bounds: the rects, the curve constants, and
+     * the min/max scroll as of an item revision
+     */
+    private static final class Layout {
+        int windowWidth;
+        int windowHeight;
+        final Rect stackBounds = new Rect();
+
+        final Rect viewRect = new Rect();
+        final Rect stackVisibleRect = new Rect();
+        final Rect stackRect = new Rect();
+        final Rect taskRect = new Rect();
+        int betweenAffiliationOffset;
+        float betweenCardsP;
+        float pAtBottomOfStackRect;
+        float pTaskHeightOffset;
+        float pNavBarOffset;
+
+        // The scroll bounds are only valid for the items at this revision
+        int itemRevision = -1;
+        float minScrollP;
+        float maxScrollP;
+        float initialScrollP;
+
+        boolean matches(int width, int height, Rect bounds) {
+            return windowWidth == width && windowHeight == height && stackBounds.equals(bounds);
+        }
+    }
+
+    // The layouts of the last sizes, most recently used first, so that rotating back and forth is
+    // a lookup
+    private static final int MAX_CACHED_LAYOUTS = 4;
+    private ArrayList<Layout> mLayoutCache = new ArrayList<>(MAX_CACHED_LAYOUTS);
+    private Layout mCurrentLayout;
+    // Incremented whenever the card progresses change
+    private int mItemRevision;
 
     // Log function
     private static final float X_SCALE = 1.75f;
@@ -49,84 +99,269 @@ class StackViewLayoutAlgorithm {
      * Computes the stack and task rect
      */
     void computeRect(int windowWidth, int windowHeight, Rect taskStackBounds) {
+        // Nothing depends on anything else than these, skip the curve lookups if they are the same
+        if (mCurrentLayout != null && mCurrentLayout.matches(windowWidth, windowHeight, taskStackBounds)) {
+            return;
+        }
+
+        Layout layout = null;
+        for (int i = 0; i < mLayoutCache.size(); i++) {
+            if (mLayoutCache.get(i).matches(windowWidth, windowHeight, taskStackBounds)) {
+                layout = mLayoutCache.remove(i);
+                break;
+            }
+        }
+        if (layout == null) {
+            layout = new Layout();
+            layout.windowWidth = windowWidth;
+            layout.windowHeight = windowHeight;
+            layout.stackBounds.set(taskStackBounds);
+            computeLayout(mConfig, windowWidth, windowHeight, taskStackBounds, layout);
+        }
+        cacheLayout(layout);
+        mCurrentLayout = layout;
+
+        mViewRect.set(layout.viewRect);
+        mStackVisibleRect.set(layout.stackVisibleRect);
+        mStackRect.set(layout.stackRect);
+        mTaskRect.set(layout.taskRect);
+        mBetweenAffiliationOffset = layout.betweenAffiliationOffset;
+        mBetweenCardsP = layout.betweenCardsP;
+        mPAtBottomOfStackRect = layout.pAtBottomOfStackRect;
+        mPTaskHeightOffset = layout.pTaskHeightOffset;
+        mPNavBarOffset = layout.pNavBarOffset;
+        if (layout.itemRevision == mItemRevision) {
+            // The items didn't change since this size was last used
+            mMinScrollP = layout.minScrollP;
+            mMaxScrollP = layout.maxScrollP;
+            mInitialScrollP = layout.initialScrollP;
+        } else {
+            updateMinMaxScroll();
+        }
+    }
+
+    private void cacheLayout(Layout layout) {
+        mLayoutCache.add(0, layout);
+        if (mLayoutCache.size() > MAX_CACHED_LAYOUTS) {
+            mLayoutCache.remove(mLayoutCache.size() - 1);
+        }
+    }
+
+    /**
+     * Computes the rects and curve constants for this size, not the key. This is only done on a
+     * cache miss in computeRect(), it is cheap enough to not be worth precomputing.
+     */
+    private static void computeLayout(Configuration config, int windowWidth, int windowHeight,
+                                      Rect taskStackBounds, Layout out) {
         // Compute the stack rect
-        mViewRect.set(0, 0, windowWidth, windowHeight);
-        mStackRect.set(taskStackBounds);
-        mStackVisibleRect.set(taskStackBounds);
-        mStackVisibleRect.bottom = mViewRect.bottom;
+        out.viewRect.set(0, 0, windowWidth, windowHeight);
+        out.stackRect.set(taskStackBounds);
+        out.stackVisibleRect.set(taskStackBounds);
+        out.stackVisibleRect.bottom = out.viewRect.bottom;
 
-        int widthPadding = (int) (mConfig.taskStackWidthPaddingPct * mStackRect.width());
-        int heightPadding = mConfig.taskStackTopPaddingPx;
-        mStackRect.inset(widthPadding, heightPadding);
+        int widthPadding = (int) (config.taskStackWidthPaddingPct * out.stackRect.width());
+        int heightPadding = config.taskStackTopPaddingPx;
+        out.stackRect.inset(widthPadding, heightPadding);
 
         // Compute the task rect
-        int width = mStackRect.width();
-        int height = mStackRect.height();
-        int left = mStackRect.left + (mStackRect.width() - width) / 2;
-        mTaskRect.set(left, mStackRect.top, left + width, mStackRect.top + height);
+        int width = out.stackRect.width();
+        int height = out.stackRect.height();
+        int left = out.stackRect.left + (out.stackRect.width() - width) / 2;
+        out.taskRect.set(left, out.stackRect.top, left + width, out.stackRect.top + height);
 
         // 这里设置CardView之间的各种参数，Update the affiliation offsets
         float visibleTaskPct = 0.5f;
-        mBetweenAffiliationOffset = (int) (visibleTaskPct * mTaskRect.height());
+        out.betweenAffiliationOffset = (int) (visibleTaskPct * out.taskRect.height());
+
+        // Note that we should account for the scale difference of the offsets at the screen bottom
+        Rect visibleRect = out.stackVisibleRect;
+        out.pAtBottomOfStackRect = screenYToCurveProgress(visibleRect.bottom, visibleRect);
+        out.betweenCardsP = out.pAtBottomOfStackRect -
+                screenYToCurveProgress(visibleRect.bottom - out.betweenAffiliationOffset, visibleRect);
+        out.pTaskHeightOffset = out.pAtBottomOfStackRect -
+                screenYToCurveProgress(visibleRect.bottom - out.taskRect.height(), visibleRect);
+        out.pNavBarOffset = out.pAtBottomOfStackRect -
+                screenYToCurveProgress(visibleRect.bottom - (visibleRect.bottom - out.stackRect.bottom), visibleRect);
     }
 
     /**
-     * Computes the minimum and maximum scroll progress values.  This method may be called before
-     * the RecentConfiguration is set, so we need to pass in the alt-tab state.
+     * Rebuilds the card progresses from the adapter, then computes the minimum and maximum scroll
+     * progress values. This is O(n), use the onItem*() methods for single mutations.
      */
-    void computeMinMaxScroll(int itemCount) {
-        // Clear the progress map
-        mTaskProgressMap.clear();
+    void computeMinMaxScroll(StackViewAdapter adapter) {
+        // Rebuild the progress tree from the item heights
+        int itemCount = adapter.getNumberOfItems();
+        if (mTmpWeights.length < itemCount) {
+            mTmpWeights = new float[itemCount];
+        }
+        for (int i = 0; i < itemCount; i++) {
+            mTmpWeights[i] = adapter.getCardWeight(i);
+        }
+        mProgressTree.build(mTmpWeights, itemCount);
+        mItemRevision++;
+        updateMinMaxScroll();
+    }
 
+    /**
+     * Updates the card progresses for an item inserted at this position, in O(log n). Call
+     * updateMinMaxScroll() once done with the mutations.
+     */
+    void onItemInserted(int position, float heightWeight) {
+        mProgressTree.insert(position, heightWeight);
+        mItemRevision++;
+    }
+
+    /**
+     * Updates the card progresses for the item whose weight changed at this position, in O(log n)
+     */
+    void onItemChanged(int position, float weight) {
+        mProgressTree.set(position, weight);
+        mItemRevision++;
+    }
+
+    /**
+     * Updates the card progresses for the item removed at this position, in O(log n)
+     */
+    void onItemRemoved(int position) {
+        mProgressTree.remove(position);
+        mItemRevision++;
+    }
+
+    /**
+     * Updates the card progresses for an item moved between these positions, in O(log n)
+     */
+    void onItemMoved(int fromPosition, int toPosition) {
+        mProgressTree.move(fromPosition, toPosition);
+        mItemRevision++;
+    }
+
+    /**
+     * Computes the minimum and maximum scroll progress values from the current card progresses,
+     * in O(log n).
+     */
+    void updateMinMaxScroll() {
         // Return early if we have no tasks
+        int itemCount = mProgressTree.size();
         if (itemCount < 1) {
             mMinScrollP = mMaxScrollP = 0;
+            saveScrollBounds();
             return;
         }
 
-        // Note that we should account for the scale difference of the offsets at the screen bottom
-        int taskHeight = mTaskRect.height();
-        float pAtBottomOfStackRect = screenYToCurveProgress(mStackVisibleRect.bottom);
-        float pBetweenAffiliateOffset = pAtBottomOfStackRect -
-                screenYToCurveProgress(mStackVisibleRect.bottom - mBetweenAffiliationOffset);
-        float pTaskHeightOffset = pAtBottomOfStackRect -
-                screenYToCurveProgress(mStackVisibleRect.bottom - taskHeight);
-        float pNavBarOffset = pAtBottomOfStackRect -
-                screenYToCurveProgress(mStackVisibleRect.bottom - (mStackVisibleRect.bottom - mStackRect.bottom));
-
-        // Update the task offsets
-        float pAtFrontMostCardTop = 0.2f;
-        for (int i = 0; i < itemCount; i++) {
-            mTaskProgressMap.put(i, pAtFrontMostCardTop);
-
-            if (i < (itemCount - 1)) {
-                // Increment the peek height
-                pAtFrontMostCardTop += pBetweenAffiliateOffset;
-            }
+        // Only a front most card of another height needs a curve lookup
+        float pTaskHeightOffset = mPTaskHeightOffset;
+        int taskHeight = getCardHeight(itemCount - 1);
+        if (taskHeight != mTaskRect.height()) {
+            pTaskHeightOffset = mPAtBottomOfStackRect -
+                    screenYToCurveProgress(mStackVisibleRect.bottom - taskHeight);
         }
+        float pAtFrontMostCardTop = getStackScrollForTask(itemCount - 1);
 
-        mMaxScrollP = pAtFrontMostCardTop - ((1f - pTaskHeightOffset - pNavBarOffset));
+        mMaxScrollP = pAtFrontMostCardTop - ((1f - pTaskHeightOffset - mPNavBarOffset));
         mMinScrollP = itemCount == 1 ? Math.max(mMaxScrollP, 0f) : 0f;
         mInitialScrollP = Math.max(0, pAtFrontMostCardTop);
+        saveScrollBounds();
+    }
+
+    /**
+     * Keeps the scroll bounds with the current layout, for when the window gets back to its size
+     */
+    private void saveScrollBounds() {
+        if (mCurrentLayout != null) {
+            mCurrentLayout.itemRevision = mItemRevision;
+            mCurrentLayout.minScrollP = mMinScrollP;
+            mCurrentLayout.maxScrollP = mMaxScrollP;
+            mCurrentLayout.initialScrollP = mInitialScrollP;
+        }
+    }
+
+    /**
+     * Returns whether the card at this position is folded into a collapsed group, ie. laid out
+     * with a weight of 0.
+     */
+    boolean isCardHidden(int position) {
+        return position >= 0 && position < mProgressTree.size() && mProgressTree.get(position) == 0f;
+    }
+
+    /**
+     * Returns the position of the closest card before this one that is not hidden, or -1 if there
+     * is none.
+     */
+    int getPreviousShownCard(int position) {
+        return mProgressTree.findLastNonZeroBefore(position);
     }
 
     /**
-     * 由初始化的mTaskProgressMap来构建 view各自OverviewCardTransform 的绘制
+     * Returns the number of cards in the layout
+     */
+    int getItemCount() {
+        return mProgressTree.size();
+    }
+
+    /**
+     * Returns the height of the card at this position, without its background padding
+     */
+    int getCardHeight(int position) {
+        return Math.round(mTaskRect.height() * mProgressTree.get(position));
+    }
+
+    /**
+     * Writes into rangeOut the range of positions that may be visible at this stack scroll, [0]
+     * is the front most one and [1] the back most one. Either is -1 if no card can be visible.
+     */
+    void getCandidateVisibleRange(float stackScroll, int[] rangeOut) {
+        int itemCount = mProgressTree.size();
+        if (itemCount < 1) {
+            rangeOut[0] = rangeOut[1] = -1;
+            return;
+        }
+        if (mBetweenCardsP <= 0) {
+            // All the cards are at the same progress
+            rangeOut[0] = itemCount - 1;
+            rangeOut[1] = 0;
+            return;
+        }
+
+        // Cards are visible from the front most one whose top is still on screen, to the one right
+        // behind the last card below the top of the stack
+        int front = Math.min(itemCount - 1, mProgressTree.findLastIndexAtOrBefore(
+                (stackScroll + 1f - BACK_MOST_CARD_P) / mBetweenCardsP));
+        if (front < 0) {
+            rangeOut[0] = rangeOut[1] = -1;
+            return;
+        }
+        int back = mProgressTree.findLastIndexAtOrBefore(
+                (stackScroll - BACK_MOST_CARD_P) / mBetweenCardsP);
+        rangeOut[0] = front;
+        rangeOut[1] = Math.max(0, Math.min(back, front));
+    }
+
+    /**
+     * 由初始化的进度树来构建 view各自OverviewCardTransform 的绘制
      */
     CardTransform getStackTransform(int position, float stackScroll, CardTransform transformOut,
                                     CardTransform prevTransform) {
         // Return early if we have an invalid index
-        if (!mTaskProgressMap.containsKey(position)) {
+        if (position < 0 || position >= mProgressTree.size()) {
             transformOut.reset();
             return transformOut;
         }
-        return getStackTransform(mTaskProgressMap.get(position), stackScroll, transformOut, prevTransform);
+        return getStackTransform(getStackScrollForTask(position), getCardHeight(position), stackScroll,
+                transformOut, prevTransform);
     }
 
     /**
-     * Update/get the transform
+     * Update/get the transform of a full height card
      */
     CardTransform getStackTransform(float taskProgress, float stackScroll, CardTransform transformOut, CardTransform prevTransform) {
+        return getStackTransform(taskProgress, mTaskRect.height(), stackScroll, transformOut, prevTransform);
+    }
+
+    /**
+     * Update/get the transform
+     */
+    CardTransform getStackTransform(float taskProgress, int cardHeight, float stackScroll,
+                                    CardTransform transformOut, CardTransform prevTransform) {
         float pTaskRelative = taskProgress - stackScroll;
         float pBounded = Math.max(0, Math.min(pTaskRelative, 1f));
         // 大于1就说明已经扩大到屏幕外了 If the task top is outside of the bounds below the screen, then immediately reset it
@@ -145,7 +380,7 @@ class StackViewLayoutAlgorithm {
             }
         }
         float scale = curveProgressToScale(pBounded);
-        int scaleYOffset = (int) (((1f - scale) * mTaskRect.height()) / 2);
+        int scaleYOffset = (int) (((1f - scale) * cardHeight) / 2);
         int minZ = mConfig.taskViewTranslationZMinPx;
         int maxZ = mConfig.taskViewTranslationZMaxPx;
         transformOut.scale = scale;
@@ -153,6 +388,7 @@ class StackViewLayoutAlgorithm {
                 scaleYOffset;
         transformOut.translationZ = Math.max(minZ, minZ + (pBounded * (maxZ - minZ)));
         transformOut.rect.set(mTaskRect);
+        transformOut.rect.bottom = transformOut.rect.top + cardHeight;
         transformOut.rect.offset(0, transformOut.translationY);
         Utilities.scaleRectAboutCenter(transformOut.rect, transformOut.scale);
         transformOut.visible = true;
@@ -164,7 +400,47 @@ class StackViewLayoutAlgorithm {
      * Returns the scroll to such task top = 1f;
      */
     float getStackScrollForTask(int index) {
-        return mTaskProgressMap.get(index);
+        return BACK_MOST_CARD_P + mBetweenCardsP * mProgressTree.getPrefixSum(index);
+    }
+
+    /**
+     * Returns the progress between a card of weight 1 and the next one, for the current rects
+     */
+    float getBetweenCardsP() {
+        return mBetweenCardsP;
+    }
+
+    /**
+     * Returns the stack scroll at which the card at this index rests exactly where the front most
+     * card rests at the max scroll. This is not bounded.
+     */
+    float getStackScrollForFrontCard(int index) {
+        return getStackScrollForTask(index) - getStackScrollForTask(mProgressTree.size() - 1)
+                + mMaxScrollP;
+    }
+
+    /**
+     * Returns the stack scroll closest to the specified one at which some card rests exactly where
+     * the front most card rests at the max scroll.
+     */
+    float getSnapStackScroll(float stackScroll) {
+        int itemCount = mProgressTree.size();
+        if (itemCount < 1 || mBetweenCardsP <= 0) {
+            return stackScroll;
+        }
+
+        // Find the cards whose progress are right before and after the one in the front slot
+        float offset = getStackScrollForTask(itemCount - 1) - mMaxScrollP;
+        float p = stackScroll + offset;
+        int index = Math.max(0, mProgressTree.findLastIndexAtOrBefore((p - BACK_MOST_CARD_P) / mBetweenCardsP));
+        float snapP = getStackScrollForTask(index);
+        if (index + 1 < itemCount) {
+            float nextP = getStackScrollForTask(index + 1);
+            if (Math.abs(nextP - p) < Math.abs(snapP - p)) {
+                snapP = nextP;
+            }
+        }
+        return snapP - offset;
     }
 
     /**
@@ -292,7 +568,11 @@ class StackViewLayoutAlgorithm {
      * @return 输入高度实际占曲线的百分比
      */
     float screenYToCurveProgress(int screenY) {
-        float x = (float) (screenY - mStackVisibleRect.top) / mStackVisibleRect.height();
+        return screenYToCurveProgress(screenY, mStackVisibleRect);
+    }
+
+    private static float screenYToCurveProgress(int screenY, Rect stackVisibleRect) {
+        float x = (float) (screenY - stackVisibleRect.top) / stackVisibleRect.height();
         if (x < 0 || x > 1) {
             return x;
         }
@@ -0,0 +1,57 @@
+package com.wirelesspienetwork.overview.views;
+
+/**
+ * StackView 性能统计
+ * Counters describing how much work the stack did while synchronizing its cards.
+ */
+public class StackViewMetrics {
+
+    private long mTransformUpdates;
+    private long mSkippedTransformUpdates;
+
+    /**
+     * Records a card transform update, and whether it was skipped because the card was already
+     * at (or animating to) the same transform.
+     */
+    void onTransformUpdate(boolean skipped) {
+        mTransformUpdates++;
+        if (skipped) {
+            mSkippedTransformUpdates++;
+        }
+    }
+
+    /**
+     * Returns the number of card transform updates requested since the last reset.
+     */
+    public long getTransformUpdateCount() {
+        return mTransformUpdates;
+    }
+
+    /**
+     * Returns the number of card transform updates that did no property writes.
+     */
+    public long getSkippedTransformUpdateCount() {
+        return mSkippedTransformUpdates;
+    }
+
+    /**
+     * Returns the fraction (0..1) of card transform updates that did no property writes.
+     */
+    public float getSkippedTransformUpdateRate() {
+        return mTransformUpdates == 0 ? 0f : (float) mSkippedTransformUpdates / mTransformUpdates;
+    }
+
+    /**
+     * Resets all the counters.
+     */
+    public void reset() {
+        mTransformUpdates = 0;
+        mSkippedTransformUpdates = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "StackViewMetrics transformUpdates: " + mTransformUpdates + " skipped: " +
+                mSkippedTransformUpdates;
+    }
+}
@@ -5,14 +5,13 @@ import android.animation.AnimatorListenerAdapter;
 import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.content.Context;
-import android.widget.OverScroller;
 
 import com.wirelesspienetwork.overview.misc.Configuration;
 
 /**
  * StackView 滚动逻辑
  */
-class StackViewScroller {
+class StackViewScroller implements StackViewFlinger.Callbacks {
 
     interface Callbacks {
         void onScrollChanged(float p);
@@ -24,12 +23,13 @@ class StackViewScroller {
 
     private float mStackScrollP;
 
-    OverScroller mScroller;
+    StackViewFlinger mFlinger;
     ObjectAnimator mScrollAnimator;
 
-    StackViewScroller(Context context, Configuration config, StackViewLayoutAlgorithm layoutAlgorithm) {
+    StackViewScroller(Context context, Configuration config, StackViewLayoutAlgorithm layoutAlgorithm,
+                      StackViewFrameScheduler scheduler) {
         mConfig = config;
-        mScroller = new OverScroller(context);
+        mFlinger = new StackViewFlinger(this, scheduler);
         mLayoutAlgorithm = layoutAlgorithm;
         setStackScroll(getStackScroll());
     }
@@ -58,13 +58,6 @@ class StackViewScroller {
         }
     }
 
-    /**
-     * Sets the current stack scroll without calling the callback.
-     */
-    private void setStackScrollRaw(float s) {
-        mStackScrollP = s;
-    }
-
     /**
      * Sets the current stack scroll to the initial state when you first enter recents
      */
@@ -88,7 +81,7 @@ class StackViewScroller {
     /**
      * Returns the bounded stack scroll
      */
-    private float getBoundedStackScroll(float scroll) {
+    float getBoundedStackScroll(float scroll) {
         return Math.max(mLayoutAlgorithm.mMinScrollP, Math.min(mLayoutAlgorithm.mMaxScrollP, scroll));
     }
 
@@ -124,6 +117,20 @@ class StackViewScroller {
         return mScrollAnimator;
     }
 
+    /**
+     * Animates the stack scroll to the specified one, bounded
+     */
+    void animateScrollTo(float newScroll) {
+        animateScroll(getStackScroll(), getBoundedStackScroll(newScroll), null);
+    }
+
+    /**
+     * Returns whether the stack scroll is being animated
+     */
+    boolean isScrollAnimating() {
+        return mScrollAnimator != null && mScrollAnimator.isRunning();
+    }
+
     /**
      * Animates the stack scroll
      */
@@ -164,44 +171,44 @@ class StackViewScroller {
     }
 
     /**
-     * OverScroller
+     * Converts the pixels of the visible stack height to progress
      */
-    int progressToScrollRange(float p) {
-        return (int) (p * mLayoutAlgorithm.mStackVisibleRect.height());
-    }
-
-    private float scrollRangeToProgress(int s) {
+    float scrollRangeToProgress(int s) {
         return (float) s / mLayoutAlgorithm.mStackVisibleRect.height();
     }
 
     /**
-     * Called from the view draw, computes the next scroll.
+     * Flings the stack with the specified velocity, in progress per second. The final position is
+     * computed up front, snapped to a card if enabled, and bounded.
      */
-    boolean computeScroll() {
-        if (mScroller.computeScrollOffset()) {
-            float scroll = scrollRangeToProgress(mScroller.getCurrY());
-            setStackScrollRaw(scroll);
-            if (mCb != null) {
-                mCb.onScrollChanged(scroll);
-            }
-            return true;
+    void fling(float velocity) {
+        stopBoundScrollAnimation();
+        float curScroll = getStackScroll();
+        float finalScroll = curScroll
+                + StackViewFlinger.getDecayDistance(velocity, mConfig.taskStackFlingFriction);
+        if (mConfig.taskStackFlingSnapToCards) {
+            finalScroll = mLayoutAlgorithm.getSnapStackScroll(finalScroll);
         }
-        return false;
+        finalScroll = getBoundedStackScroll(finalScroll);
+        mFlinger.start(curScroll, finalScroll, mConfig.taskStackFlingFriction);
+    }
+
+    @Override
+    public void onFlingStep(float p) {
+        setStackScroll(p);
     }
 
     /**
-     * Returns whether the OverScroller is scrolling.
+     * Returns whether the stack is flinging.
      */
     boolean isScrolling() {
-        return !mScroller.isFinished();
+        return mFlinger.isRunning();
     }
 
     /**
      * Stops the scroller and any current fling.
      */
     void stopScroller() {
-        if (!mScroller.isFinished()) {
-            mScroller.abortAnimation();
-        }
+        mFlinger.stop();
     }
-}
\ No newline at end of file
+}
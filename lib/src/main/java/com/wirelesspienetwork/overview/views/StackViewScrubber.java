@@ -0,0 +1,145 @@
+package com.wirelesspienetwork.overview.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewParent;
+
+import com.wirelesspienetwork.overview.misc.Configuration;
+
+/**
+ * 快速滚动条
+ * A fast scroll strip along the right edge of the stack. Dragging the thumb maps directly to the
+ * stack scroll between its min and max, and only binds placeholders until the thumb is released.
+ */
+class StackViewScrubber extends View {
+
+    private static final int TRACK_COLOR = 0x33000000;
+    private static final int THUMB_COLOR = 0x99000000;
+
+    Configuration mConfig;
+    StackView mStackView;
+    boolean mScrubbing;
+
+    private Paint mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private RectF mTmpRect = new RectF();
+
+    StackViewScrubber(Context context, Configuration config) {
+        super(context);
+        mConfig = config;
+    }
+
+    /**
+     * Sets the stack that this scrubber scrolls
+     */
+    void setStackView(StackView stackView) {
+        if (mScrubbing) {
+            stopScrubbing();
+        }
+        mStackView = stackView;
+        invalidate();
+    }
+
+    /**
+     * Returns whether there is anything to scrub through
+     */
+    private boolean isScrubbable() {
+        return mStackView != null
+                && mStackView.mLayoutAlgorithm.mMaxScrollP > mStackView.mLayoutAlgorithm.mMinScrollP;
+    }
+
+    /**
+     * Returns the fraction of the scroll range the stack is at
+     */
+    private float getScrollFraction() {
+        StackViewLayoutAlgorithm algorithm = mStackView.mLayoutAlgorithm;
+        float fraction = (mStackView.mStackScroller.getStackScroll() - algorithm.mMinScrollP)
+                / (algorithm.mMaxScrollP - algorithm.mMinScrollP);
+        return Math.max(0f, Math.min(1f, fraction));
+    }
+
+    /**
+     * Scrolls the stack to where the center of the thumb would be at the specified y
+     */
+    private void scrubTo(float y) {
+        int thumbHeight = mConfig.taskStackScrubberThumbHeightPx;
+        float fraction = (y - getPaddingTop() - thumbHeight / 2f)
+                / (getHeight() - getPaddingTop() - getPaddingBottom() - thumbHeight);
+        fraction = Math.max(0f, Math.min(1f, fraction));
+        StackViewLayoutAlgorithm algorithm = mStackView.mLayoutAlgorithm;
+        mStackView.mStackScroller.setStackScroll(algorithm.mMinScrollP
+                + fraction * (algorithm.mMaxScrollP - algorithm.mMinScrollP));
+    }
+
+    private void stopScrubbing() {
+        mScrubbing = false;
+        setPressed(false);
+        // Give the cards we stopped on their real content
+        mStackView.setBindPlaceholders(false);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent ev) {
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN: {
+                // Let touches outside the strip through to the stack
+                if (!isScrubbable() || ev.getX() < getWidth() - mConfig.taskStackScrubberWidthPx) {
+                    return false;
+                }
+                mScrubbing = true;
+                setPressed(true);
+                ViewParent parent = getParent();
+                if (parent != null) {
+                    parent.requestDisallowInterceptTouchEvent(true);
+                }
+                mStackView.mStackScroller.stopScroller();
+                mStackView.mStackScroller.stopBoundScrollAnimation();
+                mStackView.setBindPlaceholders(true);
+                scrubTo(ev.getY());
+                return true;
+            }
+            case MotionEvent.ACTION_MOVE: {
+                if (mScrubbing) {
+                    scrubTo(ev.getY());
+                }
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL: {
+                if (mScrubbing) {
+                    stopScrubbing();
+                }
+                break;
+            }
+        }
+        return mScrubbing;
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (!isScrubbable()) {
+            return;
+        }
+        int right = getWidth() - getPaddingRight();
+        int left = right - mConfig.taskStackScrubberWidthPx;
+        int top = getPaddingTop();
+        int bottom = getHeight() - getPaddingBottom();
+        int thumbHeight = mConfig.taskStackScrubberThumbHeightPx;
+        float radius = mConfig.taskStackScrubberWidthPx / 4f;
+
+        // The track is only shown while scrubbing
+        if (mScrubbing) {
+            mPaint.setColor(TRACK_COLOR);
+            mTmpRect.set(left, top, right, bottom);
+            canvas.drawRoundRect(mTmpRect, radius, radius, mPaint);
+        }
+
+        float thumbTop = top + getScrollFraction() * (bottom - top - thumbHeight);
+        mPaint.setColor(THUMB_COLOR);
+        mTmpRect.set(left + radius, thumbTop, right - radius, thumbTop + thumbHeight);
+        canvas.drawRoundRect(mTmpRect, radius, radius, mPaint);
+    }
+}
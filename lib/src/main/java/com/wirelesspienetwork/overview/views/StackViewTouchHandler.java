@@ -1,24 +1,31 @@
 package com.wirelesspienetwork.overview.views;
 
 import android.content.Context;
+import android.view.Choreographer;
+import android.view.HapticFeedbackConstants;
 import android.view.MotionEvent;
-import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewParent;
 import com.wirelesspienetwork.overview.misc.Configuration;
+import com.wirelesspienetwork.overview.model.ViewHolder;
 
 /**
  * StackView 触摸事件
  */
 class StackViewTouchHandler implements SwipeHelper.Callback {
     private static final int INACTIVE_POINTER_ID = -1;
-    private static final int TASK_STACK_OVER_SCROLL_RANGE = 150;
+    // Touch samples are resampled at this long before the frame time, like the framework does
+    private static final long RESAMPLE_LATENCY_MS = 5;
+    // The furthest we predict the finger position past the newest touch sample
+    private static final long RESAMPLE_MAX_PREDICTION_MS = 8;
 
     private Configuration mConfig;
     private StackView mStackView;
     private StackViewScroller mScroller;
-    private VelocityTracker mVelocityTracker;
+    // Tracks the (negated) finger curve progress of every touch sample, which while in bounds
+    // moves exactly like the stack scroll
+    private ScrollVelocityTracker mVelocityTracker = new ScrollVelocityTracker();
 
     private boolean mIsScrolling;
 
@@ -35,6 +42,35 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
     private SwipeHelper mSwipeHelper;
     private boolean mInterceptedBySwipeHelper;
 
+    // Long press drag to reorder
+    private StackViewCard mPendingDragCard;
+    private StackViewCard mDragCard;
+    private int mDragPosition = -1;
+    private float mDragStartTranslationY;
+    private Runnable mStartDragRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startDrag();
+        }
+    };
+
+    // The two newest touch samples of the active pointer, used to resample the scroll at vsync
+    private long mPrevSampleTime = -1;
+    private float mPrevSampleY;
+    private long mLastSampleTime = -1;
+    private float mLastSampleY;
+    private boolean mResampleScheduled;
+    private Choreographer.FrameCallback mResampleCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mResampleScheduled = false;
+            if (mIsScrolling) {
+                long sampleTime = frameTimeNanos / 1000000 - RESAMPLE_LATENCY_MS;
+                applyStackScrollForTouchY(resampleTouchY(sampleTime));
+            }
+        }
+    };
+
     StackViewTouchHandler(Context context, StackView sv, Configuration config, StackViewScroller scroller) {
         ViewConfiguration configuration = ViewConfiguration.get(context);
         mMinimumVelocity = configuration.getScaledMinimumFlingVelocity();
@@ -51,26 +87,79 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
     }
 
     /**
-     * Velocity tracker helpers
+     * Forgets the touch samples, to be called when the active pointer changes
      */
-    private void initOrResetVelocityTracker() {
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
-        } else {
-            mVelocityTracker.clear();
+    private void resetTouchSamples() {
+        mPrevSampleTime = mLastSampleTime = -1;
+        mVelocityTracker.clear();
+    }
+
+    /**
+     * Records a touch sample of the active pointer
+     */
+    private void addTouchSample(long timeMs, float y) {
+        mPrevSampleTime = mLastSampleTime;
+        mPrevSampleY = mLastSampleY;
+        mLastSampleTime = timeMs;
+        mLastSampleY = y;
+        mVelocityTracker.addSample(timeMs, -mStackView.mLayoutAlgorithm.screenYToCurveProgress((int) y));
+    }
+
+    /**
+     * Records all the samples of the active pointer batched in this event, oldest first
+     */
+    private void addTouchSamples(MotionEvent ev, int pointerIndex) {
+        int historySize = ev.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            addTouchSample(ev.getHistoricalEventTime(h), ev.getHistoricalY(pointerIndex, h));
+        }
+        addTouchSample(ev.getEventTime(), ev.getY(pointerIndex));
+    }
+
+    /**
+     * Returns the finger position at the specified time, interpolated between the two newest
+     * samples, or extrapolated a little if the time is past the newest one.
+     */
+    private float resampleTouchY(long timeMs) {
+        long interval = mLastSampleTime - mPrevSampleTime;
+        if (mPrevSampleTime < 0 || interval <= 0) {
+            return mLastSampleY;
         }
+        long maxTime = mLastSampleTime + Math.min(RESAMPLE_MAX_PREDICTION_MS, interval / 2);
+        long t = Math.max(mPrevSampleTime, Math.min(maxTime, timeMs));
+        float alpha = (float) (t - mPrevSampleTime) / interval;
+        return mPrevSampleY + (mLastSampleY - mPrevSampleY) * alpha;
     }
 
-    private void initVelocityTrackerIfNotExists() {
-        if (mVelocityTracker == null) {
-            mVelocityTracker = VelocityTracker.obtain();
+    /**
+     * Scrolls the stack to follow the finger at the specified position
+     */
+    private void applyStackScrollForTouchY(float y) {
+        float curP = mStackView.mLayoutAlgorithm.screenYToCurveProgress((int) y);
+        float deltaP = mLastP - curP;
+        float curStackScroll = mScroller.getStackScroll();
+        float overScrollAmount = mScroller.getScrollAmountOutOfBounds(curStackScroll + deltaP);
+        if (Float.compare(overScrollAmount, 0f) != 0) {
+            // Bound the OverScroll to a fixed amount, and inversely scale the y-movement
+            // relative to how close we are to the max OverScroll
+            float maxOverScroll = mConfig.taskStackOverScrollPct;
+            deltaP *= (1f - (Math.min(maxOverScroll, overScrollAmount) / maxOverScroll));
         }
+        mScroller.setStackScroll(curStackScroll + deltaP);
+        if (mScroller.isScrollOutOfBounds()) {
+            mVelocityTracker.clear();
+        }
+        mLastP = curP;
     }
 
-    private void recycleVelocityTracker() {
-        if (mVelocityTracker != null) {
-            mVelocityTracker.recycle();
-            mVelocityTracker = null;
+    /**
+     * Applies the newest touch sample right away instead of waiting for the next frame
+     */
+    private void flushResampledScroll() {
+        if (mResampleScheduled) {
+            mStackView.mFrameScheduler.removeFrameCallback(mResampleCallback);
+            mResampleScheduled = false;
+            applyStackScrollForTouchY(mLastSampleY);
         }
     }
 
@@ -78,25 +167,98 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
      * Returns the view at the specified coordinates
      */
     private StackViewCard findViewAtPoint(int x, int y) {
-        int childCount = mStackView.getChildCount();
-        for (int i = childCount - 1; i >= 0; i--) {
-            StackViewCard tv = (StackViewCard) mStackView.getChildAt(i);
-            if (tv.getVisibility() == View.VISIBLE) {
-                if (mStackView.isTransformedTouchPointInView(x, y, tv)) {
-                    return tv;
-                }
-            }
+        int position = mStackView.findCardAt(x, y);
+        if (position < 0) {
+            return null;
+        }
+        StackViewCard tv = mStackView.getChildViewForIndex(position);
+        if (tv != null && tv.getVisibility() == View.VISIBLE) {
+            return tv;
         }
         return null;
     }
 
     /**
-     * Constructs a simulated motion event for the current stack scroll
+     * Waits for a long press on this card to start dragging it
      */
-    private MotionEvent createMotionEventForStackScroll(MotionEvent ev) {
-        MotionEvent pev = MotionEvent.obtainNoHistory(ev);
-        pev.setLocation(0, mScroller.progressToScrollRange(mScroller.getStackScroll()));
-        return pev;
+    private void scheduleDrag(StackViewCard card) {
+        cancelPendingDrag();
+        if (card != null && mStackView.canDragToReorder()) {
+            mPendingDragCard = card;
+            mStackView.postDelayed(mStartDragRunnable, ViewConfiguration.getLongPressTimeout());
+        }
+    }
+
+    private void cancelPendingDrag() {
+        if (mPendingDragCard != null) {
+            mStackView.removeCallbacks(mStartDragRunnable);
+            mPendingDragCard = null;
+        }
+    }
+
+    /**
+     * Lifts the long pressed card, it now follows the finger until it is dropped
+     */
+    private void startDrag() {
+        StackViewCard card = mPendingDragCard;
+        mPendingDragCard = null;
+        ViewHolder vh = mStackView.mViewHolderMap.get(card);
+        if (vh == null || vh.getPosition() < 0) {
+            return;
+        }
+        mDragCard = card;
+        mDragPosition = vh.getPosition();
+        mDragStartTranslationY = card.getTranslationY();
+        mStackView.setDraggedPosition(mDragPosition);
+        card.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
+        final ViewParent parent = mStackView.getParent();
+        if (parent != null) {
+            parent.requestDisallowInterceptTouchEvent(true);
+        }
+    }
+
+    /**
+     * Moves the dragged card with the finger, and moves its item over the card under the finger
+     */
+    private void updateDrag(int x, int y) {
+        mDragCard.setTranslationY(mDragStartTranslationY + y - mInitialMotionY);
+        if (mStackView.isHitIndexStale()) {
+            // The last move isn't laid out yet, the cards under the finger would be the old ones
+            return;
+        }
+        int targetPosition = mStackView.findCardAt(x, y);
+        if (targetPosition >= 0 && targetPosition != mDragPosition) {
+            mStackView.mStackAdapter.notifyItemMoved(mDragPosition, targetPosition);
+            // The card keeps following the finger from its new slot
+            mDragPosition = targetPosition;
+        }
+    }
+
+    /**
+     * Handles the events of a drag, from both the intercept and the touch paths
+     */
+    private void onDragTouchEvent(MotionEvent ev) {
+        switch (ev.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE: {
+                int activePointerIndex = ev.findPointerIndex(mActivePointerId);
+                if (activePointerIndex >= 0) {
+                    updateDrag((int) ev.getX(activePointerIndex), (int) ev.getY(activePointerIndex));
+                }
+                break;
+            }
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL: {
+                // Drop the card, it animates into its slot
+                mDragCard = null;
+                mDragPosition = -1;
+                mStackView.setDraggedPosition(-1);
+                mActivePointerId = INACTIVE_POINTER_ID;
+                mIsScrolling = false;
+                resetTouchSamples();
+                mStackView.setTouchedPosition(-1);
+                break;
+            }
+        }
     }
 
     /**
@@ -109,14 +271,25 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
             return false;
         }
 
+        // Take over the gesture once a card was lifted
+        if (mDragCard != null) {
+            onDragTouchEvent(ev);
+            return true;
+        }
+
+        // Make sure the touched card has a real view before the swipe helper looks for it
+        if ((ev.getAction() & MotionEvent.ACTION_MASK) == MotionEvent.ACTION_DOWN) {
+            mStackView.setTouchedPosition(mStackView.findCardAt((int) ev.getX(), (int) ev.getY()));
+        }
+
         // Pass through to swipe helper if we are swiping
         mInterceptedBySwipeHelper = mSwipeHelper.onInterceptTouchEvent(ev);
         if (mInterceptedBySwipeHelper) {
+            cancelPendingDrag();
             return true;
         }
 
-        boolean wasScrolling = mScroller.isScrolling() ||
-                (mScroller.mScrollAnimator != null && mScroller.mScrollAnimator.isRunning());
+        boolean wasScrolling = mScroller.isScrolling() || mScroller.isScrollAnimating();
         int action = ev.getAction();
         switch (action & MotionEvent.ACTION_MASK) {
             case MotionEvent.ACTION_DOWN: {
@@ -127,10 +300,14 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
                 mScroller.stopScroller();
                 mScroller.stopBoundScrollAnimation();
                 // Initialize the velocity tracker
-                initOrResetVelocityTracker();
-                mVelocityTracker.addMovement(createMotionEventForStackScroll(ev));
+                resetTouchSamples();
+                addTouchSample(ev.getEventTime(), ev.getY());
                 // Check if the scroller is finished yet
                 mIsScrolling = mScroller.isScrolling();
+                // A long press on a card lifts it to reorder it
+                if (!wasScrolling) {
+                    scheduleDrag(findViewAtPoint((int) ev.getX(), (int) ev.getY()));
+                }
                 break;
             }
             case MotionEvent.ACTION_MOVE: {
@@ -138,12 +315,11 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
 
                 int activePointerIndex = ev.findPointerIndex(mActivePointerId);
                 int y = (int) ev.getY(activePointerIndex);
+                addTouchSamples(ev, activePointerIndex);
                 if (Math.abs(y - mInitialMotionY) > mScrollTouchSlop) {
                     // Save the touch move info
                     mIsScrolling = true;
-                    // Initialize the velocity tracker if necessary
-                    initVelocityTrackerIfNotExists();
-                    mVelocityTracker.addMovement(createMotionEventForStackScroll(ev));
+                    cancelPendingDrag();
                     // Disallow parents from intercepting touch events
                     final ViewParent parent = mStackView.getParent();
                     if (parent != null) {
@@ -157,12 +333,15 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
             }
             case MotionEvent.ACTION_CANCEL:
             case MotionEvent.ACTION_UP: {
+                cancelPendingDrag();
+                // Release the touched card, it can be drawn on the canvas again
+                mStackView.setTouchedPosition(-1);
                 // Animate the scroll back if we've cancelled
                 mScroller.animateBoundScroll();
                 // Reset the drag state and the velocity tracker
                 mIsScrolling = false;
                 mActivePointerId = INACTIVE_POINTER_ID;
-                recycleVelocityTracker();
+                resetTouchSamples();
                 break;
             }
         }
@@ -185,8 +364,11 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
             return true;
         }
 
-        // Update the velocity tracker
-        initVelocityTrackerIfNotExists();
+        // Move the dragged card until it is dropped
+        if (mDragCard != null) {
+            onDragTouchEvent(ev);
+            return true;
+        }
 
         int action = ev.getAction();
         switch (action & MotionEvent.ACTION_MASK) {
@@ -198,8 +380,8 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
                 mScroller.stopScroller();
                 mScroller.stopBoundScrollAnimation();
                 // Initialize the velocity tracker
-                initOrResetVelocityTracker();
-                mVelocityTracker.addMovement(createMotionEventForStackScroll(ev));
+                resetTouchSamples();
+                addTouchSample(ev.getEventTime(), ev.getY());
                 // Disallow parents from intercepting touch events
                 final ViewParent parent = mStackView.getParent();
                 if (parent != null) {
@@ -208,10 +390,13 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
                 break;
             }
             case MotionEvent.ACTION_POINTER_DOWN: {
+                flushResampledScroll();
                 final int index = ev.getActionIndex();
                 mActivePointerId = ev.getPointerId(index);
                 mLastMotionY = (int) ev.getY(index);
                 mLastP = mStackView.mLayoutAlgorithm.screenYToCurveProgress(mLastMotionY);
+                resetTouchSamples();
+                addTouchSample(ev.getEventTime(), ev.getY(index));
                 break;
             }
             case MotionEvent.ACTION_MOVE: {
@@ -222,14 +407,11 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
                 int activePointerIndex = ev.findPointerIndex(mActivePointerId);
                 int y = (int) ev.getY(activePointerIndex);
                 int yTotal = Math.abs(y - mInitialMotionY);
-                float curP = mStackView.mLayoutAlgorithm.screenYToCurveProgress(y);
-                float deltaP = mLastP - curP;
+                addTouchSamples(ev, activePointerIndex);
                 if (!mIsScrolling) {
                     if (yTotal > mScrollTouchSlop) {
                         mIsScrolling = true;
-                        // Initialize the velocity tracker
-                        initOrResetVelocityTracker();
-                        mVelocityTracker.addMovement(createMotionEventForStackScroll(ev));
+                        cancelPendingDrag();
                         // Disallow parents from intercepting touch events
                         final ViewParent parent = mStackView.getParent();
                         if (parent != null) {
@@ -238,42 +420,27 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
                     }
                 }
                 if (mIsScrolling) {
-                    float curStackScroll = mScroller.getStackScroll();
-                    float overScrollAmount = mScroller.getScrollAmountOutOfBounds(curStackScroll + deltaP);
-                    if (Float.compare(overScrollAmount, 0f) != 0) {
-                        // Bound the OverScroll to a fixed amount, and inversely scale the y-movement
-                        // relative to how close we are to the max OverScroll
-                        float maxOverScroll = mConfig.taskStackOverScrollPct;
-                        deltaP *= (1f - (Math.min(maxOverScroll, overScrollAmount) / maxOverScroll));
-                    }
-                    mScroller.setStackScroll(curStackScroll + deltaP);
-                    if (mScroller.isScrollOutOfBounds()) {
-                        mVelocityTracker.clear();
-                    } else {
-                        mVelocityTracker.addMovement(createMotionEventForStackScroll(ev));
+                    // The scroll is applied once on the next frame, from the finger position
+                    // resampled at that frame's time
+                    if (!mResampleScheduled) {
+                        mResampleScheduled = true;
+                        mStackView.mFrameScheduler.postFrameCallback(mResampleCallback);
                     }
+                } else {
+                    mLastP = mStackView.mLayoutAlgorithm.screenYToCurveProgress(y);
                 }
                 mLastMotionY = y;
-                mLastP = mStackView.mLayoutAlgorithm.screenYToCurveProgress(mLastMotionY);
                 break;
             }
             case MotionEvent.ACTION_UP: {
-                final VelocityTracker velocityTracker = mVelocityTracker;
-                velocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
-                int velocity = (int) velocityTracker.getYVelocity(mActivePointerId);
-                if (mIsScrolling && (Math.abs(velocity) > mMinimumVelocity)) {
-                    int overScrollRange = (int) (Math.min(1f,
-                            Math.abs((float) velocity / mMaximumVelocity)) *
-                            TASK_STACK_OVER_SCROLL_RANGE);
+                cancelPendingDrag();
+                // Catch up with the finger before flinging
+                flushResampledScroll();
+                float maxVelocity = mScroller.scrollRangeToProgress(mMaximumVelocity);
+                float velocity = Math.max(-maxVelocity, Math.min(maxVelocity, mVelocityTracker.getVelocity()));
+                if (mIsScrolling && (Math.abs(velocity) > mScroller.scrollRangeToProgress(mMinimumVelocity))) {
                     // Fling scroll
-                    mScroller.mScroller.fling(0, mScroller.progressToScrollRange(mScroller.getStackScroll()),
-                            0, velocity,
-                            0, 0,
-                            mScroller.progressToScrollRange(mStackView.mLayoutAlgorithm.mMinScrollP),
-                            mScroller.progressToScrollRange(mStackView.mLayoutAlgorithm.mMaxScrollP),
-                            0, overScrollRange);
-                    // Invalidate to kick off computeScroll
-                    mStackView.invalidate();
+                    mScroller.fling(velocity);
                 } else if (mScroller.isScrollOutOfBounds()) {
                     // Animate the scroll back into bounds
                     mScroller.animateBoundScroll();
@@ -281,30 +448,36 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
 
                 mActivePointerId = INACTIVE_POINTER_ID;
                 mIsScrolling = false;
-                recycleVelocityTracker();
+                resetTouchSamples();
+                mStackView.setTouchedPosition(-1);
                 break;
             }
             case MotionEvent.ACTION_POINTER_UP: {
                 int pointerIndex = ev.getActionIndex();
                 int pointerId = ev.getPointerId(pointerIndex);
                 if (pointerId == mActivePointerId) {
+                    flushResampledScroll();
                     // Select a new active pointer id and reset the motion state
                     final int newPointerIndex = (pointerIndex == 0) ? 1 : 0;
                     mActivePointerId = ev.getPointerId(newPointerIndex);
                     mLastMotionY = (int) ev.getY(newPointerIndex);
                     mLastP = mStackView.mLayoutAlgorithm.screenYToCurveProgress(mLastMotionY);
-                    mVelocityTracker.clear();
+                    resetTouchSamples();
+                    addTouchSample(ev.getEventTime(), ev.getY(newPointerIndex));
                 }
                 break;
             }
             case MotionEvent.ACTION_CANCEL: {
+                cancelPendingDrag();
+                flushResampledScroll();
                 if (mScroller.isScrollOutOfBounds()) {
                     // Animate the scroll back into bounds
                     mScroller.animateBoundScroll();
                 }
                 mActivePointerId = INACTIVE_POINTER_ID;
                 mIsScrolling = false;
-                recycleVelocityTracker();
+                resetTouchSamples();
+                mStackView.setTouchedPosition(-1);
                 break;
             }
         }
@@ -348,6 +521,7 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
         tv.setTouchEnabled(true);
         // Remove the task view from the stack
         mStackView.onCardDismissed(tv);
+        mStackView.setTouchedPosition(-1);
     }
 
     @Override
@@ -355,6 +529,7 @@ class StackViewTouchHandler implements SwipeHelper.Callback {
         StackViewCard tv = (StackViewCard) v;
         // Re-enable touch events from this task view
         tv.setTouchEnabled(true);
+        mStackView.setTouchedPosition(-1);
     }
 
     @Override